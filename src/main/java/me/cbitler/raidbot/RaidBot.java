@@ -8,17 +8,28 @@ import me.cbitler.raidbot.database.Database;
 import me.cbitler.raidbot.deselection.DeselectionStep;
 import me.cbitler.raidbot.edit.EditIdleStep;
 import me.cbitler.raidbot.edit.EditStep;
+import me.cbitler.raidbot.handlers.ChannelHandler;
 import me.cbitler.raidbot.handlers.ChannelMessageHandler;
 import me.cbitler.raidbot.handlers.DMHandler;
 import me.cbitler.raidbot.handlers.ReactionHandler;
+import me.cbitler.raidbot.handlers.RoleHandler;
 import me.cbitler.raidbot.raids.AutoPendingRaid;
+import me.cbitler.raidbot.raids.EventRepository;
+import me.cbitler.raidbot.raids.InMemoryEventRepository;
 import me.cbitler.raidbot.raids.PendingRaid;
 import me.cbitler.raidbot.raids.RaidManager;
+import me.cbitler.raidbot.raids.RaidMessageUpdater;
+import me.cbitler.raidbot.raids.SqliteEventRepository;
 import me.cbitler.raidbot.selection.SelectionStep;
+import me.cbitler.raidbot.server_settings.InMemorySettingsRepository;
 import me.cbitler.raidbot.server_settings.RoleGroupsEditStep;
 import me.cbitler.raidbot.server_settings.RoleTemplatesEditStep;
+import me.cbitler.raidbot.server_settings.ServerSettings;
+import me.cbitler.raidbot.server_settings.SettingsRepository;
+import me.cbitler.raidbot.server_settings.SqliteSettingsRepository;
 import me.cbitler.raidbot.swap.SwapStep;
 import me.cbitler.raidbot.utility.AutomatedTaskExecutor;
+import me.cbitler.raidbot.utility.EnvVariables;
 import me.cbitler.raidbot.utility.EventCreator;
 import me.cbitler.raidbot.utility.PermissionsUtil;
 import net.dv8tion.jda.api.JDA;
@@ -61,9 +72,26 @@ public class RaidBot {
     Set<String> editRoleTemplatesList = new HashSet<String>();
 
     Database db;
+    EventRepository eventRepository;
+    SettingsRepository settingsRepository;
 
     HashMap<String, List<AutomatedTaskExecutor>> autoEventCreator = new HashMap<>();
 
+    /**
+     * Create an instance of the raid bot on an existing JDA api and repositories, without logging in,
+     * loading events or registering commands. This is used by tests that drive the bot's classes directly.
+     *
+     * @param jda the JDA api
+     * @param eventRepository the repository of the events
+     * @param settingsRepository the repository of the server settings
+     */
+    public RaidBot(JDA jda, EventRepository eventRepository, SettingsRepository settingsRepository) {
+        instance = this;
+        this.jda = jda;
+        this.eventRepository = eventRepository;
+        this.settingsRepository = settingsRepository;
+    }
+
     /**
      * Create a new instance of the raid bot with the specified JDA api
      *
@@ -83,17 +111,33 @@ public class RaidBot {
         this.jda = JDABuilder.create(token, intents)
                             .addEventListeners(new DMHandler(this),
                                                new ChannelMessageHandler(),
-                                               new ReactionHandler())
+                                               new ReactionHandler(),
+                                               new RoleHandler(),
+                                               new ChannelHandler())
                             .build()
                             .awaitReady();
-        db = new Database();
-        db.connect();
+        if ("memory".equalsIgnoreCase(EnvVariables.getValue("STORAGE_BACKEND"))) {
+            eventRepository = new InMemoryEventRepository();
+            settingsRepository = new InMemorySettingsRepository();
+        } else {
+            db = new Database();
+            db.connect();
+            eventRepository = new SqliteEventRepository(db);
+            settingsRepository = new SqliteSettingsRepository(db);
+        }
+        ServerSettings.loadSettings();
         RaidManager.loadRaids();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            RaidMessageUpdater.flushAll();
+            if (db != null)
+                db.close();
+        }, "shutdown"));
 
         CommandRegistry.addCommand("help", new HelpCommand());
         CommandRegistry.addCommand("info", new InfoCommand());
         CommandRegistry.addCommand("endEvent", new EndRaidCommand());
         CommandRegistry.addCommand("endAllEvents", new EndAllCommand());
+        CommandRegistry.addCommand("backupDatabase", new BackupCommand());
     }
 
     /**
@@ -219,12 +263,28 @@ public class RaidBot {
 
     /**
      * Get the database that the bot is using
-     * @return The database that the bot is using
+     * @return The database that the bot is using, null if the events are stored in memory
      */
     public Database getDatabase() {
         return db;
     }
 
+    /**
+     * Get the repository that stores the events
+     * @return The event repository
+     */
+    public EventRepository getEventRepository() {
+        return eventRepository;
+    }
+
+    /**
+     * Get the repository that stores the server settings
+     * @return The settings repository
+     */
+    public SettingsRepository getSettingsRepository() {
+        return settingsRepository;
+    }
+
 
     /**
      * Get the current instance of the bot
@@ -325,7 +385,7 @@ public class RaidBot {
             return false;
         if (tasks == null)
             tasks = new ArrayList<AutomatedTaskExecutor>();
-        AutomatedTaskExecutor taskExec = new AutomatedTaskExecutor(new EventCreator(event, tasks.size()));
+        AutomatedTaskExecutor taskExec = new AutomatedTaskExecutor(new EventCreator(event, AutomatedTaskExecutor.newTaskId(serverId)));
         tasks.add(taskExec);
         autoEventCreator.put(serverId, tasks);
         taskExec.startExecution();
@@ -338,15 +398,13 @@ public class RaidBot {
      * stops an auto event
      *
      * @param serverId
-     * @param taskId
+     * @param taskId the ID of the task, see {@link AutomatedTaskExecutor#getId()}
      */
-    public void stopAutoEvent(String serverId, int taskId) {
+    public void stopAutoEvent(String serverId, String taskId) {
         List<AutomatedTaskExecutor> tasks = autoEventCreator.get(serverId);
         if (tasks != null)
-        {
-            AutomatedTaskExecutor task = tasks.remove(taskId);
-            task.stop();
-        }
+            tasks.removeIf(task -> task.getId().equals(taskId));
+        AutomatedTaskExecutor.cancel(taskId);
     }
 
 
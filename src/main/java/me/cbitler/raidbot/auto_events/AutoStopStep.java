@@ -15,6 +15,7 @@ import java.util.List;
 public class AutoStopStep {
 
     List<String> tasks = new ArrayList<>();
+    List<String> taskIds = new ArrayList<>();
     String serverId;
 
     public AutoStopStep(String serverId) {
@@ -22,6 +23,7 @@ public class AutoStopStep {
 		for (int t = 0; t < taskExecs.size(); t++)
 		{
 			tasks.add(taskExecs.get(t).getName());
+			taskIds.add(taskExecs.get(t).getId());
 		}
 		this.serverId = serverId;
 	}
@@ -62,7 +64,7 @@ public class AutoStopStep {
         	RaidBot bot = RaidBot.getInstance();
         	for (int c  = 0; c < choiceIds.size(); c++)
         	{
-        		bot.stopAutoEvent(serverId, choiceIds.get(c));
+        		bot.stopAutoEvent(serverId, taskIds.get(choiceIds.get(c)));
         	}
         	return true;
         }
@@ -0,0 +1,41 @@
+package me.cbitler.raidbot.commands;
+
+import me.cbitler.raidbot.RaidBot;
+import me.cbitler.raidbot.database.Database;
+import me.cbitler.raidbot.utility.EnvVariables;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Take a snapshot of the whole database. The database holds the events of all servers,
+ * so this is only usable by the bot admins listed in BOT_ADMINS.
+ */
+public class BackupCommand implements Command {
+    private static final Logger log = LogManager.getLogger(BackupCommand.class);
+
+    @Override
+    public void handleCommand(String command, String[] args, TextChannel channel, User author) {
+        String admins = EnvVariables.getValue("BOT_ADMINS");
+        if (admins == null || !Arrays.asList(admins.split("\\s*,\\s*")).contains(author.getId()))
+            return;
+
+        Database db = RaidBot.getInstance().getDatabase();
+        if (db == null) {
+            author.openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("The bot does not use a database that could be backed up.").queue());
+            return;
+        }
+        db.snapshot().whenComplete((file, e) -> {
+            if (e == null) {
+                author.openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Database snapshot written to `" + file.getFileName() + "`.").queue());
+            } else {
+                log.error("Database snapshot failed.", e);
+                author.openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("An error occured while taking the database snapshot.").queue());
+            }
+        });
+    }
+}
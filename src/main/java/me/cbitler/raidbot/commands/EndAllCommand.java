@@ -9,42 +9,34 @@ import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.entities.User;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class EndAllCommand implements Command {
     @Override
     public void handleCommand(String command, String[] args, TextChannel channel, User author) {
         Member member = channel.getGuild().getMember(author);
         if (PermissionsUtil.hasRaidLeaderRole(member)) {
-            List<Raid> allEvents = RaidManager.getAllRaids();
-            int numEvents = allEvents.size();
-
             String serverId = channel.getGuild().getId();
-            ArrayList<Boolean> archived = new ArrayList<Boolean>();
+            List<Raid> serverEvents = RaidManager.getRaidsForGuild(serverId);
+            int numEvents = serverEvents.size();
+
             boolean archiveAvail = ServerSettings.isArchiveAvailable(serverId);
-            if (archiveAvail) {
-            	for (int ev = 0; ev < numEvents; ev++) {
-                	Raid raid = allEvents.get(ev);
-                    if (raid != null && raid.getServerId().equalsIgnoreCase(serverId)) {
-                    	// post message in archive if available
-                        archived.add(raid.postToArchive());
-                    } else {
-                    	archived.add(false);
-                    }
-                }
+            List<String> messageIds = new ArrayList<String>();
+            Set<String> messagesToDelete = new HashSet<String>();
+            for (Raid raid : serverEvents) {
+                messageIds.add(raid.getMessageId());
+                // post message in archive if available
+                if (archiveAvail && raid.postToArchive())
+                    messagesToDelete.add(raid.getMessageId());
             }
-
+            // all events are archived together
+            Set<String> deleted = new HashSet<String>(RaidManager.deleteRaids(messageIds, messagesToDelete));
             List<String> notDeleted = new ArrayList<String>();
-            for (int ev = numEvents-1; ev >= 0; ev--) {
-            	Raid raid = allEvents.get(ev);
-                if (raid != null && raid.getServerId().equalsIgnoreCase(serverId)) {
-                	String name = raid.getName();
-                	boolean delete_message = archiveAvail && archived.get(ev);
-                    boolean deleted = RaidManager.deleteRaid(raid.getMessageId(), delete_message);
-                    if (deleted == false) {
-                    	notDeleted.add(name);
-                    }
-                }
+            for (Raid raid : serverEvents) {
+                if (deleted.contains(raid.getMessageId()) == false)
+                    notDeleted.add(raid.getName());
             }
             author.openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Successfully ended " + (numEvents - notDeleted.size()) + " of " + numEvents + " existing events.").queue());
             for (String eventName : notDeleted) {
@@ -3,6 +3,7 @@ package me.cbitler.raidbot.creation;
 import me.cbitler.raidbot.RaidBot;
 import me.cbitler.raidbot.raids.PendingRaid;
 import me.cbitler.raidbot.server_settings.ServerSettings;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 
 /**
@@ -33,8 +34,9 @@ public class RunChannelStep implements CreationStep {
     	String serverId = raid.getServerId();
         if (enterManually) {
             String channelWithoutHash = e.getMessage().getContentRaw().replace("#","");
-        	if (ServerSettings.checkChannel(serverId, channelWithoutHash)) {
-        		raid.setAnnouncementChannel(channelWithoutHash);
+            TextChannel channel = ServerSettings.findChannel(serverId, channelWithoutHash);
+        	if (channel != null) {
+        		raid.setAnnouncementChannel(channel.getId());
         	} else {
 				e.getChannel().sendMessage("Please choose a valid channel.").queue();
 				return false;
@@ -44,8 +46,9 @@ public class RunChannelStep implements CreationStep {
         	try {
         		int choiceId = Integer.parseInt(e.getMessage().getContentRaw()) - 1;
         		if (choiceId >= 0 && choiceId < defaultChannels.length) { // one of the default channels
-        			if (ServerSettings.checkChannel(serverId, defaultChannels[choiceId])) {
-                		raid.setAnnouncementChannel(defaultChannels[choiceId]);
+        			TextChannel channel = ServerSettings.findChannel(serverId, defaultChannels[choiceId]);
+        			if (channel != null) {
+                		raid.setAnnouncementChannel(channel.getId());
                 	} else {
         				e.getChannel().sendMessage("Please choose a valid channel.").queue();
         				return false;
@@ -0,0 +1,172 @@
+package me.cbitler.raidbot.database;
+
+import me.cbitler.raidbot.utility.EnvVariables;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Online backups of the database while the bot is running.
+ * Backups are copied page by page with SQLite's backup API on a separate connection and their own thread,
+ * so they only read the database and never take the write lock or wait for the database thread.
+ * Scheduled backups run every DB_BACKUP_INTERVAL_HOURS (default 24, 0 disables them), snapshots are taken on demand.
+ * Only the newest DB_BACKUP_RETENTION (default 7) backups and snapshots are kept in DB_BACKUP_DIR.
+ */
+class Backups {
+    private static final Logger log = LogManager.getLogger(Backups.class);
+
+    private static final String SCHEDULED = "backup";
+    private static final String SNAPSHOT = "snapshot";
+    private static final String EXTENSION = ".db";
+    private static final String PARTIAL = ".part";
+
+    /* *
+     * UTC timestamps sort in the order the backups were taken
+     */
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Database db;
+    private final Path directory;
+    private final long intervalHours = EnvVariables.getIntValue("DB_BACKUP_INTERVAL_HOURS", 24);
+    private final int retention = Math.max(1, EnvVariables.getIntValue("DB_BACKUP_RETENTION", 7));
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "database-backups");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create the backups of a database
+     * @param db The database
+     */
+    Backups(Database db) {
+        this.db = db;
+        String dir = EnvVariables.getValue("DB_BACKUP_DIR");
+        if (dir == null) {
+            this.directory = Paths.get(db.databaseName).toAbsolutePath().getParent().resolve("backups");
+        } else {
+            this.directory = Paths.get(EnvVariables.getContextPath()).resolve(dir).toAbsolutePath();
+        }
+    }
+
+    /**
+     * Schedule the regular backups, the first one runs one interval after the start
+     */
+    void start() {
+        if (intervalHours <= 0) {
+            log.info("Scheduled database backups are disabled.");
+            return;
+        }
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                backup(SCHEDULED);
+            } catch (SQLException | IOException | RuntimeException e) {
+                log.error("Scheduled database backup failed.", e);
+            }
+        }, intervalHours, intervalHours, TimeUnit.HOURS);
+        log.info("Backing up the database to '{}' every {} hours.", directory, intervalHours);
+    }
+
+    /**
+     * Take a snapshot of the database in the background
+     * @return Completes with the snapshot file, or exceptionally if the snapshot failed
+     */
+    CompletableFuture<Path> snapshot() {
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(backup(SNAPSHOT));
+                } catch (SQLException | IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Stop taking backups, waiting for a running backup to finish
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(Database.READER_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                log.warn("Timed out waiting for the database backup.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copy the database into a new backup file and remove the oldest backups of the same kind.
+     * The copy is written to a partial file first, so a backup file is always complete.
+     * @param kind The kind of backup, used as prefix of the file name
+     * @return The backup file
+     * @throws SQLException
+     * @throws IOException
+     */
+    private Path backup(String kind) throws SQLException, IOException {
+        Files.createDirectories(directory);
+        String name = kind + "-" + ZonedDateTime.now(ZoneOffset.UTC).format(TIMESTAMP) + EXTENSION;
+        Path target = directory.resolve(name);
+        Path partial = directory.resolve(name + PARTIAL);
+
+        long start = System.currentTimeMillis();
+        try {
+            db.backup(partial);
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        log.info("Database backup '{}' written in {} ms.", target, System.currentTimeMillis() - start);
+
+        removeOldBackups(kind);
+        return target;
+    }
+
+    /**
+     * Delete all but the newest backups of a kind, together with partial files left over by an interrupted backup
+     * @param kind The kind of backup
+     * @throws IOException
+     */
+    private void removeOldBackups(String kind) throws IOException {
+        List<Path> backups = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, kind + "-*")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(PARTIAL))
+                    Files.deleteIfExists(file);
+                else if (fileName.endsWith(EXTENSION))
+                    backups.add(file);
+            }
+        }
+        Collections.sort(backups);
+        for (int i = 0; i < backups.size() - retention; i++) {
+            Files.deleteIfExists(backups.get(i));
+            log.info("Deleted old database backup '{}'.", backups.get(i));
+        }
+    }
+}
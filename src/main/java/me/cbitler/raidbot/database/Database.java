@@ -2,64 +2,85 @@ package me.cbitler.raidbot.database;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.sqlite.SQLiteConnection;
 import me.cbitler.raidbot.utility.EnvVariables;
 
 /**
- * Class for managing the SQLite database for this bot
+ * Class for managing the SQLite database for this bot.
+ * The database runs in WAL mode with a single writer connection and a small pool of reader connections,
+ * so reads never wait for writes. Writes are serialized on the writer connection.
+ * Writes that are started from JDA's event threads should use the asynchronous methods, which run on a dedicated
+ * database thread, so that handling events does not wait for the disk.
  * @author Christopher Bitler
  * @author Franziska Mueller
  */
 public class Database {
     private static final Logger log = LogManager.getLogger(Database.class);
 
+    /* *
+     * how long a query waits for a free reader connection before giving up
+     */
+    static final long READER_TIMEOUT_SECONDS = 30;
+
+    /* *
+     * maximum number of prepared statements cached per connection
+     */
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
     String databaseName;
+
+    /* *
+     * the only connection used for writes, guarded by this object's monitor
+     */
     Connection connection;
+    StatementCache writer;
+
+    /* *
+     * read-only connections with their statements, a query borrows one until its QueryResult is closed
+     */
+    BlockingQueue<StatementCache> readers;
+
+    /* *
+     * the thread that runs asynchronous updates and writes the queued updates, in the order they were submitted
+     */
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "database-writes");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    //Thee are the queries for creating the tables
-
-    String raidTableInit = "CREATE TABLE IF NOT EXISTS raids (\n"
-            + " raidId text PRIMARY KEY, \n"
-            + " serverId text NOT NULL, \n"
-            + " channelId text NOT NULL, \n"
-            + " isDisplayShort text NOT NULL, \n"
-            + " isOpenWorld text NOT NULL, \n"
-            + " isFractalEvent text NOT NULL, \n"
-            + " leader text NOT NULL, \n"
-            + " `name` text NOT NULL, \n"
-            + " `description` text, \n"
-            + " `date` text NOT NULL, \n"
-            + " `time` text NOT NULL, \n"
-            + " roles text NOT NULL, \n"
-            + " permittedRoles text);";
-
-    String raidUsersTableInit = "CREATE TABLE IF NOT EXISTS raidUsers (\n"
-            + " userId text, \n"
-            + " username text, \n"
-            + " spec text, \n"
-            + " role text, \n"
-            + " raidId text)";
-
-    String raidUsersFlexRolesTableInit = "CREATE TABLE IF NOT EXISTS raidUsersFlexRoles (\n"
-            + " userId text, \n"
-            + " username text, \n"
-            + " spec text, \n"
-            + " role text, \n"
-            + " raidId text)";
-
-    String botServerSettingsInit = "CREATE TABLE IF NOT EXISTS serverSettings (\n"
-            + " serverId text PRIMARY KEY, \n"
-            + " raid_leader_role text, \n"
-            + " fractal_creator_role text, \n"
-            + " fractal_channel text, \n"
-            + " archive_channel text, \n"
-            + " auto_events_channel text, \n"
-            + " predef_role_groups text, \n"
-            + " role_templates text)";
+    /* *
+     * updates that are written in the background, see updateLater
+     */
+    WriteQueue writeQueue = new WriteQueue(this, executor);
+
+    /* *
+     * scheduled backups and snapshots, see DB_BACKUP_DIR, DB_BACKUP_INTERVAL_HOURS and DB_BACKUP_RETENTION
+     */
+    Backups backups;
+
+    /* *
+     * pragma settings, see DB_SYNCHRONOUS, DB_CACHE_SIZE and DB_READ_CONNECTIONS
+     */
+    String synchronous = EnvVariables.getValue("DB_SYNCHRONOUS") == null ? "NORMAL" : EnvVariables.getValue("DB_SYNCHRONOUS");
+    int cacheSize = EnvVariables.getIntValue("DB_CACHE_SIZE", -8000);
+    // loading the events needs three readers at the same time
+    int readConnections = Math.max(3, EnvVariables.getIntValue("DB_READ_CONNECTIONS", 4));
 
     /**
      * Create a new database with the specific filename
@@ -97,6 +118,11 @@ public class Database {
         String url = "jdbc:sqlite:" + databaseName;
         try {
             connection = DriverManager.getConnection(url);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA journal_mode = WAL");
+            }
+            configure(connection);
+            writer = new StatementCache(connection, STATEMENT_CACHE_SIZE);
         } catch (SQLException e) {
             log.error("Database connection error.", e);
             System.exit(1);
@@ -108,26 +134,160 @@ public class Database {
             log.error("Couldn't create tables.", e);
             System.exit(1);
         }
+
+        readers = new ArrayBlockingQueue<>(readConnections);
+        try {
+            for (int i = 0; i < readConnections; i++) {
+                Connection reader = DriverManager.getConnection(url);
+                configure(reader);
+                try (Statement stmt = reader.createStatement()) {
+                    stmt.execute("PRAGMA query_only = true");
+                }
+                readers.add(new StatementCache(reader, STATEMENT_CACHE_SIZE));
+            }
+        } catch (SQLException e) {
+            log.error("Database connection error.", e);
+            System.exit(1);
+        }
+
+        backups = new Backups(this);
+        backups.start();
+    }
+
+    /**
+     * Finish the asynchronous updates, write all queued updates and close all connections together with their cached statements
+     */
+    public void close() {
+        if (backups != null) {
+            backups.shutdown();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(READER_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                log.warn("Timed out waiting for asynchronous database updates.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeQueue.flush();
+        closeConnections();
+    }
+
+    private synchronized void closeConnections() {
+        if (readers != null) {
+            StatementCache reader;
+            while ((reader = readers.poll()) != null) {
+                reader.close();
+            }
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Take a snapshot of the database while the bot keeps running, see DB_BACKUP_DIR
+     * @return Completes with the snapshot file, or exceptionally if the snapshot failed
+     */
+    public CompletableFuture<Path> snapshot() {
+        return backups.snapshot();
+    }
+
+    /**
+     * Copy the database to a file with SQLite's backup API. The copy runs on its own connection, which only reads
+     * the database, so in WAL mode it neither blocks nor waits for the writer.
+     * @param target The file the database is copied to
+     * @throws SQLException
+     */
+    void backup(Path target) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + databaseName)) {
+            configure(conn);
+            conn.unwrap(SQLiteConnection.class).db().backup("main", target.toString(), null);
+        }
     }
 
     /**
-     * Run a query and return the results using the specified query and parameters
+     * Apply the pragmas that are set per connection
+     * @param conn The connection
+     * @throws SQLException
+     */
+    private void configure(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA synchronous = " + synchronous);
+            stmt.execute("PRAGMA cache_size = " + cacheSize);
+            stmt.execute("PRAGMA busy_timeout = 5000");
+        }
+    }
+
+    /**
+     * Run a query and return the results using the specified query and parameters.
+     * The query runs on a reader connection, which is returned to the pool when the QueryResult is closed.
      * @param query The query with ?s where the parameters need to be placed
      * @param data The parameters to put in the query
-     * @return QueryResult representing the statement used and the ResultSet
+     * @return QueryResult representing the statement used and the ResultSet, has to be closed
      * @throws SQLException
      */
     public QueryResult query(String query, String[] data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(query);
-        int i = 1;
-        for(String input : data) {
-            stmt.setObject(i, input);
-            i++;
+        StatementCache reader;
+        try {
+            reader = readers.poll(READER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+        if (reader == null) {
+            throw new SQLException("No database connection available.");
+        }
+
+        try {
+            PreparedStatement stmt = reader.prepare(query);
+            int i = 1;
+            for(String input : data) {
+                stmt.setObject(i, input);
+                i++;
+            }
+
+            ResultSet rs = stmt.executeQuery();
+
+            return new QueryResult(stmt, rs, () -> readers.offer(reader));
+        } catch (SQLException e) {
+            readers.offer(reader);
+            throw e;
         }
+    }
 
-        ResultSet rs = stmt.executeQuery();
+    /**
+     * Run a query and map every row of the result to an object
+     * @param query The query with ?s where the parameters need to be placed
+     * @param data The parameters to put in the query
+     * @param mapper Maps a row to an object
+     * @return The objects for all rows
+     * @throws SQLException
+     */
+    public <T> List<T> queryList(String query, String[] data, RowMapper<T> mapper) throws SQLException {
+        try (QueryResult results = query(query, data)) {
+            List<T> list = new ArrayList<>();
+            while (results.getResults().next()) {
+                list.add(mapper.map(results.getResults()));
+            }
+            return list;
+        }
+    }
 
-        return new QueryResult(stmt, rs);
+    /**
+     * Run a query and map the first row of the result to an object
+     * @param query The query with ?s where the parameters need to be placed
+     * @param data The parameters to put in the query
+     * @param mapper Maps a row to an object
+     * @return The object for the first row, or null if there are no rows
+     * @throws SQLException
+     */
+    public <T> T queryFirst(String query, String[] data, RowMapper<T> mapper) throws SQLException {
+        try (QueryResult results = query(query, data)) {
+            if (results.getResults().next()) {
+                return mapper.map(results.getResults());
+            }
+            return null;
+        }
     }
 
     /**
@@ -136,8 +296,8 @@ public class Database {
      * @param data The parameters to put in the query
      * @throws SQLException
      */
-    public void update(String query, String[] data) throws SQLException {
-        PreparedStatement stmt = connection.prepareStatement(query);
+    public synchronized void update(String query, String[] data) throws SQLException {
+        PreparedStatement stmt = writer.prepare(query);
         int i = 1;
         for(String input : data) {
             stmt.setObject(i, input);
@@ -145,54 +305,159 @@ public class Database {
         }
 
         stmt.execute();
-        stmt.close();
     }
 
     /**
-     * Create the database tables. Also alters the raid table to add the leader column if it doesn't exist.
-     * @throws SQLException
+     * Run an update query with the specified parameters on the database thread
+     * @param query The query with ?s where the parameters need to be placed
+     * @param data The parameters to put in the query
+     * @return Completes when the update is written, or exceptionally with the SQLException
      */
-    public void tableInits() throws SQLException {
-        connection.createStatement().execute(raidTableInit);
-        connection.createStatement().execute(raidUsersTableInit);
-        connection.createStatement().execute(raidUsersFlexRolesTableInit);
-        connection.createStatement().execute(botServerSettingsInit);
+    public CompletableFuture<Void> updateAsync(String query, String[] data) {
+        return runAsync(() -> update(query, data));
+    }
 
+    /**
+     * Run a sequence of update queries in a single transaction on the database thread, see updateTransaction
+     * @param queries The queries with ?s where the parameters need to be placed
+     * @param data The parameters for each query
+     * @return Completes when the transaction is committed, or exceptionally with the SQLException
+     */
+    public CompletableFuture<Void> updateTransactionAsync(List<String> queries, List<String[]> data) {
+        return runAsync(() -> updateTransaction(queries, data));
+    }
+
+    /**
+     * Updates that are run by runAsync
+     */
+    private interface Update {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Run an update on the database thread. After the database is closed, the update runs on the calling thread.
+     * Updates queued with updateLater before are written first, so the update sees all earlier changes.
+     * @param update The update
+     * @return Completes when the update is done
+     */
+    private CompletableFuture<Void> runAsync(Update update) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                writeQueue.flush();
+                update.run();
+                future.complete(null);
+            } catch (SQLException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        };
         try {
-            connection.createStatement().execute("ALTER TABLE raids ADD COLUMN leader text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE raids ADD COLUMN `description` text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE raids ADD COLUMN isOpenWorld text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE raids ADD COLUMN isDisplayShort text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE raids ADD COLUMN isFractalEvent text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE raids ADD COLUMN permittedRoles text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE serverSettings ADD COLUMN fractal_creator_role text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE serverSettings ADD COLUMN fractal_channel text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE serverSettings ADD COLUMN archive_channel text");
-        } catch (Exception e) { }
-        try {
-            connection.createStatement().execute("ALTER TABLE serverSettings ADD COLUMN auto_events_channel text");
-        } catch (Exception e) { }
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        return future;
+    }
+
+    /**
+     * Queue an update query that is written in the background. Queued updates are written in the order
+     * they were queued, batched into transactions. Use this for changes that are also kept in memory,
+     * so that a burst of changes costs one transaction instead of one per change.
+     * @param query The query with ?s where the parameters need to be placed
+     * @param data The parameters to put in the query
+     */
+    public void updateLater(String query, String[] data) {
+        writeQueue.enqueue(query, data);
+    }
+
+    /**
+     * Write all queued updates, waiting until they are committed
+     */
+    public void flushUpdates() {
+        writeQueue.flush();
+    }
+
+    /**
+     * Run a sequence of update queries in a single transaction. The i-th query is executed with the i-th set of parameters,
+     * consecutive runs of the same query are sent as one batch.
+     * @param queries The queries with ?s where the parameters need to be placed
+     * @param data The parameters for each query
+     * @throws SQLException
+     */
+    public synchronized void updateTransaction(List<String> queries, List<String[]> data) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
         try {
-            connection.createStatement().execute("ALTER TABLE serverSettings ADD COLUMN predef_role_groups text");
-        } catch (Exception e) { }
+            int start = 0;
+            while (start < queries.size()) {
+                String query = queries.get(start);
+                int end = start;
+                PreparedStatement stmt = writer.prepare(query);
+                try {
+                    while (end < queries.size() && queries.get(end).equals(query)) {
+                        int i = 1;
+                        for (String input : data.get(end)) {
+                            stmt.setObject(i, input);
+                            i++;
+                        }
+                        stmt.addBatch();
+                        end++;
+                    }
+                    stmt.executeBatch();
+                } finally {
+                    stmt.clearBatch();
+                }
+                start = end;
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Run several update queries in a single transaction. Every query is executed once for each set of parameters.
+     * @param queries The queries with ?s where the parameters need to be placed
+     * @param data The sets of parameters to put in the queries
+     * @throws SQLException
+     */
+    public synchronized void updateBatch(List<String> queries, List<String[]> data) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
         try {
-            connection.createStatement().execute("ALTER TABLE serverSettings ADD COLUMN role_templates text");
-        } catch (Exception e) { }
+            for (String query : queries) {
+                PreparedStatement stmt = writer.prepare(query);
+                try {
+                    for (String[] row : data) {
+                        int i = 1;
+                        for (String input : row) {
+                            stmt.setObject(i, input);
+                            i++;
+                        }
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } finally {
+                    stmt.clearBatch();
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Create the database tables and migrate them to the current schema, see {@link SchemaMigrations}
+     * @throws SQLException
+     */
+    public void tableInits() throws SQLException {
+        SchemaMigrations.migrate(connection);
     }
 }
@@ -1,16 +1,20 @@
 package me.cbitler.raidbot.database;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 
 /**
  * Represents the result of a query
- * It also returns the statement so that it can be cleanly closed
+ * It also returns the statement so that it can be cleanly closed.
+ * Closing the QueryResult closes both and gives the connection back to the database.
  * @author Christopher Bitler
  */
-public class QueryResult {
+public class QueryResult implements AutoCloseable {
     Statement stmt;
     ResultSet results;
+    Runnable release;
+    boolean cachedStatement;
 
     /**
      * Create a new QueryResult with the specified values
@@ -18,8 +22,21 @@ public class QueryResult {
      * @param resultSet The ResultSet
      */
     public QueryResult(Statement stmt, ResultSet resultSet) {
+        this(stmt, resultSet, null);
+    }
+
+    /**
+     * Create a new QueryResult for a cached statement. Closing it only closes the ResultSet,
+     * the statement stays open for the next query.
+     * @param stmt The statement used to get the ResultSet
+     * @param resultSet The ResultSet
+     * @param release Called once when the result is closed, gives the connection back
+     */
+    QueryResult(Statement stmt, ResultSet resultSet, Runnable release) {
         this.stmt = stmt;
         this.results = resultSet;
+        this.release = release;
+        this.cachedStatement = release != null;
     }
 
     /**
@@ -37,4 +54,24 @@ public class QueryResult {
     public ResultSet getResults() {
         return results;
     }
+
+    /**
+     * Close the ResultSet and the statement (unless it is cached) and give the connection back
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            results.close();
+            if (!cachedStatement)
+                stmt.close();
+        } finally {
+            synchronized (this) {
+                if (release != null) {
+                    release.run();
+                    release = null;
+                }
+            }
+        }
+    }
 }
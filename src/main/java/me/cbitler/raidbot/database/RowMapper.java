@@ -0,0 +1,19 @@
+package me.cbitler.raidbot.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a ResultSet to an object
+ * @param <T> The type of the object
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    /**
+     * Map the current row
+     * @param row The result set, positioned on the row to map
+     * @return The object for this row
+     * @throws SQLException
+     */
+    T map(ResultSet row) throws SQLException;
+}
@@ -0,0 +1,496 @@
+package me.cbitler.raidbot.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Versioned migrations of the database schema.
+ * The version of the schema is stored in the schema_version table, one row per applied migration.
+ * On startup all migrations with a higher version are applied in order, in a single transaction.
+ * Each migration runs exactly once: if one fails, the transaction is rolled back as a whole and no version is recorded,
+ * so the next start runs them again on the unchanged database. Migrations that copy a table into a *_new table
+ * drop a leftover *_new table first all the same.
+ * Databases created before the schema_version table existed start at version 0 and run all migrations,
+ * so the migrations of the original tables have to cope with tables that already exist.
+ * New schema or data changes are added as a new migration at the end of the list, never by changing an existing one.
+ */
+class SchemaMigrations {
+    private static final Logger log = LogManager.getLogger(SchemaMigrations.class);
+
+    /**
+     * A single migration
+     */
+    static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+
+        Migration(int version, String description, Step step) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+        }
+    }
+
+    /**
+     * The changes of a migration, applied on the writer connection inside the migration transaction
+     */
+    @FunctionalInterface
+    interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private static final String RAID_TABLE_INIT = "CREATE TABLE IF NOT EXISTS raids (\n"
+            + " raidId text PRIMARY KEY, \n"
+            + " serverId text NOT NULL, \n"
+            + " channelId text NOT NULL, \n"
+            + " isDisplayShort text NOT NULL, \n"
+            + " isOpenWorld text NOT NULL, \n"
+            + " isFractalEvent text NOT NULL, \n"
+            + " leader text NOT NULL, \n"
+            + " `name` text NOT NULL, \n"
+            + " `description` text, \n"
+            + " `date` text NOT NULL, \n"
+            + " `time` text NOT NULL, \n"
+            + " roles text NOT NULL, \n"
+            + " permittedRoles text);";
+
+    private static final String SERVER_SETTINGS_INIT = "CREATE TABLE IF NOT EXISTS serverSettings (\n"
+            + " serverId text PRIMARY KEY, \n"
+            + " raid_leader_role text, \n"
+            + " fractal_creator_role text, \n"
+            + " fractal_channel text, \n"
+            + " archive_channel text, \n"
+            + " auto_events_channel text, \n"
+            + " predef_role_groups text, \n"
+            + " role_templates text)";
+
+    static final List<Migration> MIGRATIONS = Arrays.asList(
+            new Migration(1, "create tables", SchemaMigrations::createTables),
+            new Migration(2, "primary keys for roster tables", connection -> {
+                normalizeRosterTable(connection, "raidUsers");
+                normalizeRosterTable(connection, "raidUsersFlexRoles");
+            }),
+            new Migration(3, "store event flags as integers", SchemaMigrations::convertEventFlags),
+            new Migration(4, "move event roles to their own table", SchemaMigrations::createEventRoles),
+            new Migration(5, "archive tables for ended events", SchemaMigrations::createArchiveTables),
+            new Migration(6, "move role groups and role templates to their own tables", SchemaMigrations::createRoleGroupTables)
+    );
+
+    /**
+     * Bring the schema up to date
+     * @param connection The writer connection
+     * @throws SQLException if a migration failed, nothing is changed in this case
+     */
+    static void migrate(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (\n"
+                    + " version integer PRIMARY KEY, \n"
+                    + " description text, \n"
+                    + " applied text)");
+        }
+
+        int current = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            if (rs.next())
+                current = rs.getInt(1);
+        }
+
+        List<Migration> pending = new ArrayList<>();
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > current)
+                pending.add(migration);
+        }
+        if (pending.isEmpty())
+            return;
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement record = connection.prepareStatement(
+                "INSERT INTO schema_version (version, description, applied) VALUES (?,?,?)")) {
+            for (Migration migration : pending) {
+                log.info("Migrating database to version {}: {}.", migration.version, migration.description);
+                migration.step.apply(connection);
+                record.setInt(1, migration.version);
+                record.setString(2, migration.description);
+                record.setString(3, Instant.now().toString());
+                record.execute();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Create the tables, and add the columns that were added over time to tables of old databases
+     */
+    private static void createTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(RAID_TABLE_INIT);
+            stmt.execute(rosterTableInit("raidUsers"));
+            stmt.execute(rosterTableInit("raidUsersFlexRoles"));
+            stmt.execute(SERVER_SETTINGS_INIT);
+        }
+
+        addColumnIfMissing(connection, "raids", "leader", "text");
+        addColumnIfMissing(connection, "raids", "description", "text");
+        addColumnIfMissing(connection, "raids", "isOpenWorld", "text");
+        addColumnIfMissing(connection, "raids", "isDisplayShort", "text");
+        addColumnIfMissing(connection, "raids", "isFractalEvent", "text");
+        addColumnIfMissing(connection, "raids", "permittedRoles", "text");
+        addColumnIfMissing(connection, "serverSettings", "fractal_creator_role", "text");
+        addColumnIfMissing(connection, "serverSettings", "fractal_channel", "text");
+        addColumnIfMissing(connection, "serverSettings", "archive_channel", "text");
+        addColumnIfMissing(connection, "serverSettings", "auto_events_channel", "text");
+        addColumnIfMissing(connection, "serverSettings", "predef_role_groups", "text");
+        addColumnIfMissing(connection, "serverSettings", "role_templates", "text");
+    }
+
+    /**
+     * Get the definition of a roster table (raidUsers or raidUsersFlexRoles).
+     * The primary key starts with the raid id, so it also serves as index for all queries by raid
+     * and by raid and user, and it prevents duplicate sign-ups.
+     * @param table The name of the table
+     * @return The CREATE TABLE statement
+     */
+    private static String rosterTableInit(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (\n"
+                + " raidId text NOT NULL, \n"
+                + " userId text NOT NULL, \n"
+                + " username text, \n"
+                + " role text NOT NULL, \n"
+                + " spec text NOT NULL, \n"
+                + " PRIMARY KEY (raidId, userId, role, spec)) WITHOUT ROWID";
+    }
+
+    /**
+     * Migrate a roster table created by an older version (without primary key) to the indexed schema.
+     * Duplicate rows and rows without raid or user are dropped.
+     * @param table The name of the table
+     */
+    private static void normalizeRosterTable(Connection connection, String table) throws SQLException {
+        boolean hasPrimaryKey = false;
+        try (Statement stmt = connection.createStatement();
+             ResultSet columns = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (columns.next()) {
+                if (columns.getInt("pk") > 0)
+                    hasPrimaryKey = true;
+            }
+        }
+        if (hasPrimaryKey)
+            return;
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + table + "_new");
+            stmt.execute(rosterTableInit(table + "_new"));
+            stmt.execute("INSERT OR IGNORE INTO " + table + "_new (raidId, userId, username, role, spec) "
+                    + "SELECT raidId, userId, username, COALESCE(role, ''), COALESCE(spec, '') FROM " + table
+                    + " WHERE raidId IS NOT NULL AND userId IS NOT NULL");
+            stmt.execute("DROP TABLE " + table);
+            stmt.execute("ALTER TABLE " + table + "_new RENAME TO " + table);
+        }
+    }
+
+    /**
+     * Store the flags of the events (isDisplayShort, isOpenWorld, isFractalEvent) as integers 0/1
+     * instead of the texts "true"/"false". Missing flags become 0.
+     */
+    private static void convertEventFlags(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS raids_new");
+            stmt.execute("CREATE TABLE raids_new (\n"
+                    + " raidId text PRIMARY KEY, \n"
+                    + " serverId text NOT NULL, \n"
+                    + " channelId text NOT NULL, \n"
+                    + " isDisplayShort integer NOT NULL DEFAULT 0, \n"
+                    + " isOpenWorld integer NOT NULL DEFAULT 0, \n"
+                    + " isFractalEvent integer NOT NULL DEFAULT 0, \n"
+                    + " leader text, \n"
+                    + " `name` text NOT NULL, \n"
+                    + " `description` text, \n"
+                    + " `date` text NOT NULL, \n"
+                    + " `time` text NOT NULL, \n"
+                    + " roles text NOT NULL, \n"
+                    + " permittedRoles text)");
+            stmt.execute("INSERT INTO raids_new (raidId, serverId, channelId, isDisplayShort, isOpenWorld, isFractalEvent, "
+                    + "leader, `name`, `description`, `date`, `time`, roles, permittedRoles) "
+                    + "SELECT raidId, serverId, channelId, " + flag("isDisplayShort") + ", " + flag("isOpenWorld") + ", "
+                    + flag("isFractalEvent") + ", leader, `name`, `description`, `date`, `time`, roles, permittedRoles FROM raids");
+            stmt.execute("DROP TABLE raids");
+            stmt.execute("ALTER TABLE raids_new RENAME TO raids");
+        }
+    }
+
+    /**
+     * Move the roles of the events from the packed "amount:name;amount:!name" string in raids.roles
+     * to the eventRoles table, one row per role. The role id is the index of the role in the string,
+     * which is also its position. Entries that cannot be parsed are dropped, like the loader did before.
+     */
+    private static void createEventRoles(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS eventRoles (\n"
+                    + " raidId text NOT NULL, \n"
+                    + " roleId integer NOT NULL, \n"
+                    + " `name` text NOT NULL, \n"
+                    + " amount integer NOT NULL, \n"
+                    + " flexOnly integer NOT NULL DEFAULT 0, \n"
+                    + " position integer NOT NULL, \n"
+                    + " PRIMARY KEY (raidId, roleId)) WITHOUT ROWID");
+        }
+        if (!hasColumn(connection, "raids", "roles"))
+            return;
+
+        try (Statement stmt = connection.createStatement();
+             ResultSet raids = stmt.executeQuery("SELECT raidId, roles FROM raids");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT OR IGNORE INTO eventRoles (raidId, roleId, `name`, amount, flexOnly, position) VALUES (?,?,?,?,?,?)")) {
+            while (raids.next()) {
+                String raidId = raids.getString("raidId");
+                String roles = raids.getString("roles");
+                if (roles == null)
+                    continue;
+                int roleId = 0;
+                for (String roleAndAmount : roles.split(";")) {
+                    String[] parts = roleAndAmount.split(":");
+                    int amount;
+                    try {
+                        amount = Integer.parseInt(parts[0]);
+                    } catch (NumberFormatException e) {
+                        log.info("Invalid format for role with amount: {}", roleAndAmount);
+                        continue;
+                    }
+                    if (parts.length < 2) {
+                        log.info("Invalid format for role with amount: {}", roleAndAmount);
+                        continue;
+                    }
+                    String name = parts[1];
+                    boolean flexOnly = amount == 0;
+                    if (name.startsWith("!")) {
+                        name = name.substring(1);
+                        flexOnly = true;
+                    }
+                    insert.setString(1, raidId);
+                    insert.setInt(2, roleId);
+                    insert.setString(3, name);
+                    insert.setInt(4, amount);
+                    insert.setInt(5, flexOnly ? 1 : 0);
+                    insert.setInt(6, roleId);
+                    insert.addBatch();
+                    roleId++;
+                }
+            }
+            insert.executeBatch();
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS raids_new");
+            stmt.execute("CREATE TABLE raids_new (\n"
+                    + " raidId text PRIMARY KEY, \n"
+                    + " serverId text NOT NULL, \n"
+                    + " channelId text NOT NULL, \n"
+                    + " isDisplayShort integer NOT NULL DEFAULT 0, \n"
+                    + " isOpenWorld integer NOT NULL DEFAULT 0, \n"
+                    + " isFractalEvent integer NOT NULL DEFAULT 0, \n"
+                    + " leader text, \n"
+                    + " `name` text NOT NULL, \n"
+                    + " `description` text, \n"
+                    + " `date` text NOT NULL, \n"
+                    + " `time` text NOT NULL, \n"
+                    + " permittedRoles text)");
+            stmt.execute("INSERT INTO raids_new (raidId, serverId, channelId, isDisplayShort, isOpenWorld, isFractalEvent, "
+                    + "leader, `name`, `description`, `date`, `time`, permittedRoles) "
+                    + "SELECT raidId, serverId, channelId, isDisplayShort, isOpenWorld, isFractalEvent, "
+                    + "leader, `name`, `description`, `date`, `time`, permittedRoles FROM raids");
+            stmt.execute("DROP TABLE raids");
+            stmt.execute("ALTER TABLE raids_new RENAME TO raids");
+        }
+    }
+
+    /**
+     * Create the archive tables that keep ended events with their roles and rosters.
+     * The archive is append-only: triggers reject updates and deletes. Events are grouped by the month they were
+     * archived in (archiveMonth, "YYYY-MM"), which together with the server is the key for history queries.
+     */
+    private static void createArchiveTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS archivedEvents (\n"
+                    + " raidId text PRIMARY KEY, \n"
+                    + " serverId text NOT NULL, \n"
+                    + " channelId text NOT NULL, \n"
+                    + " isDisplayShort integer NOT NULL DEFAULT 0, \n"
+                    + " isOpenWorld integer NOT NULL DEFAULT 0, \n"
+                    + " isFractalEvent integer NOT NULL DEFAULT 0, \n"
+                    + " leader text, \n"
+                    + " `name` text NOT NULL, \n"
+                    + " `description` text, \n"
+                    + " `date` text NOT NULL, \n"
+                    + " `time` text NOT NULL, \n"
+                    + " permittedRoles text, \n"
+                    + " archivedAt integer NOT NULL, \n"
+                    + " archiveMonth text NOT NULL)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS archivedEventsByMonth ON archivedEvents (archiveMonth, serverId)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS archivedEventRoles (\n"
+                    + " raidId text NOT NULL, \n"
+                    + " roleId integer NOT NULL, \n"
+                    + " `name` text NOT NULL, \n"
+                    + " amount integer NOT NULL, \n"
+                    + " flexOnly integer NOT NULL DEFAULT 0, \n"
+                    + " position integer NOT NULL, \n"
+                    + " PRIMARY KEY (raidId, roleId)) WITHOUT ROWID");
+            stmt.execute("CREATE TABLE IF NOT EXISTS archivedRaidUsers (\n"
+                    + " raidId text NOT NULL, \n"
+                    + " isFlex integer NOT NULL, \n"
+                    + " userId text NOT NULL, \n"
+                    + " username text, \n"
+                    + " spec text NOT NULL, \n"
+                    + " role text NOT NULL, \n"
+                    + " PRIMARY KEY (raidId, isFlex, userId, role, spec)) WITHOUT ROWID");
+            for (String table : Arrays.asList("archivedEvents", "archivedEventRoles", "archivedRaidUsers")) {
+                for (String operation : Arrays.asList("UPDATE", "DELETE")) {
+                    stmt.execute("CREATE TRIGGER IF NOT EXISTS " + table + "No" + operation.charAt(0) + operation.substring(1).toLowerCase()
+                            + " BEFORE " + operation + " ON " + table
+                            + " BEGIN SELECT RAISE(ABORT, 'the archive is append-only'); END");
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the role groups and role templates of the servers from the packed strings in serverSettings
+     * ("name;role,role/name;role" and "name;role:amount,role:amount#name;...") to the roleGroups and roleTemplates
+     * tables, one row per discord role or template role. Entries that cannot be parsed are dropped.
+     */
+    private static void createRoleGroupTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS roleGroups (\n"
+                    + " serverId text NOT NULL, \n"
+                    + " `name` text NOT NULL, \n"
+                    + " position integer NOT NULL, \n"
+                    + " discordRole text NOT NULL, \n"
+                    + " PRIMARY KEY (serverId, `name`, position)) WITHOUT ROWID");
+            stmt.execute("CREATE TABLE IF NOT EXISTS roleTemplates (\n"
+                    + " serverId text NOT NULL, \n"
+                    + " `name` text NOT NULL, \n"
+                    + " position integer NOT NULL, \n"
+                    + " role text NOT NULL, \n"
+                    + " amount integer NOT NULL, \n"
+                    + " PRIMARY KEY (serverId, `name`, position)) WITHOUT ROWID");
+        }
+        if (!hasColumn(connection, "serverSettings", "predef_role_groups"))
+            return;
+
+        try (Statement stmt = connection.createStatement();
+             ResultSet servers = stmt.executeQuery("SELECT serverId, predef_role_groups, role_templates FROM serverSettings");
+             PreparedStatement insertGroup = connection.prepareStatement(
+                     "INSERT OR IGNORE INTO roleGroups (serverId, `name`, position, discordRole) VALUES (?,?,?,?)");
+             PreparedStatement insertTemplate = connection.prepareStatement(
+                     "INSERT OR IGNORE INTO roleTemplates (serverId, `name`, position, role, amount) VALUES (?,?,?,?,?)")) {
+            while (servers.next()) {
+                String serverId = servers.getString("serverId");
+                String groups = servers.getString("predef_role_groups");
+                if (groups != null) {
+                    for (String group : groups.split("/")) {
+                        String[] nameAndRoles = group.split(";");
+                        if (nameAndRoles.length != 2)
+                            continue;
+                        String[] roles = nameAndRoles[1].split(",");
+                        for (int r = 0; r < roles.length; r++) {
+                            insertGroup.setString(1, serverId);
+                            insertGroup.setString(2, nameAndRoles[0]);
+                            insertGroup.setInt(3, r);
+                            insertGroup.setString(4, roles[r]);
+                            insertGroup.addBatch();
+                        }
+                    }
+                }
+                String templates = servers.getString("role_templates");
+                if (templates != null) {
+                    for (String template : templates.split("#")) {
+                        String[] nameAndRoles = template.split(";");
+                        if (nameAndRoles.length != 2)
+                            continue;
+                        int position = 0;
+                        for (String roleAndAmount : nameAndRoles[1].split(",")) {
+                            String[] parts = roleAndAmount.split(":");
+                            int amount;
+                            try {
+                                amount = Integer.parseInt(parts[parts.length - 1]);
+                            } catch (NumberFormatException e) {
+                                amount = -1;
+                            }
+                            if (parts.length != 2 || amount < 0) {
+                                log.info("Invalid format for template role with amount: {}", roleAndAmount);
+                                continue;
+                            }
+                            insertTemplate.setString(1, serverId);
+                            insertTemplate.setString(2, nameAndRoles[0]);
+                            insertTemplate.setInt(3, position);
+                            insertTemplate.setString(4, parts[0]);
+                            insertTemplate.setInt(5, amount);
+                            insertTemplate.addBatch();
+                            position++;
+                        }
+                    }
+                }
+            }
+            insertGroup.executeBatch();
+            insertTemplate.executeBatch();
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS serverSettings_new");
+            stmt.execute("CREATE TABLE serverSettings_new (\n"
+                    + " serverId text PRIMARY KEY, \n"
+                    + " raid_leader_role text, \n"
+                    + " fractal_creator_role text, \n"
+                    + " fractal_channel text, \n"
+                    + " archive_channel text, \n"
+                    + " auto_events_channel text)");
+            stmt.execute("INSERT INTO serverSettings_new (serverId, raid_leader_role, fractal_creator_role, fractal_channel, "
+                    + "archive_channel, auto_events_channel) "
+                    + "SELECT serverId, raid_leader_role, fractal_creator_role, fractal_channel, "
+                    + "archive_channel, auto_events_channel FROM serverSettings");
+            stmt.execute("DROP TABLE serverSettings");
+            stmt.execute("ALTER TABLE serverSettings_new RENAME TO serverSettings");
+        }
+    }
+
+    private static String flag(String column) {
+        return "CASE WHEN LOWER(" + column + ") IN ('true', '1') THEN 1 ELSE 0 END";
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet columns = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (columns.next()) {
+                if (columns.getString("name").equalsIgnoreCase(column))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addColumnIfMissing(Connection connection, String table, String column, String type)
+            throws SQLException {
+        if (hasColumn(connection, table, column))
+            return;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN `" + column + "` " + type);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package me.cbitler.raidbot.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A connection together with the statements prepared on it, keyed by their SQL text.
+ * The bot only uses a few dozen distinct queries, so every query is parsed once per connection.
+ * The least recently used statement is closed when the cache is full.
+ * A StatementCache must only be used by one thread at a time.
+ */
+class StatementCache {
+    private static final Logger log = LogManager.getLogger(StatementCache.class);
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    /**
+     * Create a statement cache for a connection
+     * @param connection The connection the statements are prepared on
+     * @param capacity The maximum number of cached statements
+     */
+    StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacity)
+                    return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get the prepared statement for a query, preparing it if it is not cached yet
+     * @param sql The query
+     * @return The prepared statement with its parameters cleared
+     * @throws SQLException
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * Get the connection of this cache
+     * @return The connection
+     */
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Close all cached statements and the connection
+     */
+    void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.error("Could not close database connection.", e);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            log.error("Could not close prepared statement.", e);
+        }
+    }
+}
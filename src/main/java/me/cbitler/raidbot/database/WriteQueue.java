@@ -0,0 +1,114 @@
+package me.cbitler.raidbot.database;
+
+import me.cbitler.raidbot.utility.EnvVariables;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Write-behind queue for updates that do not have to be written before the caller continues.
+ * Queued updates are written in order, in batched transactions, at most DB_WRITE_INTERVAL_MS (default 250)
+ * after they were queued or as soon as DB_WRITE_BATCH_SIZE (default 500) updates are pending.
+ */
+class WriteQueue {
+    private static final Logger log = LogManager.getLogger(WriteQueue.class);
+
+    /**
+     * A queued update
+     */
+    private static final class Write {
+        final String query;
+        final String[] data;
+
+        Write(String query, String[] data) {
+            this.query = query;
+            this.data = data;
+        }
+    }
+
+    private final Database db;
+    private final long intervalMs = Math.max(0, EnvVariables.getIntValue("DB_WRITE_INTERVAL_MS", 250));
+    private final int batchSize = Math.max(1, EnvVariables.getIntValue("DB_WRITE_BATCH_SIZE", 500));
+
+    private final LinkedBlockingQueue<Write> pending = new LinkedBlockingQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Create a write queue for a database
+     * @param db The database the updates are written to
+     * @param executor The database thread the updates are written on
+     */
+    WriteQueue(Database db, ScheduledExecutorService executor) {
+        this.db = db;
+        this.executor = executor;
+    }
+
+    /**
+     * Queue an update
+     * @param query The query with ?s where the parameters need to be placed
+     * @param data The parameters to put in the query
+     */
+    void enqueue(String query, String[] data) {
+        pending.add(new Write(query, data));
+        try {
+            if (pending.size() >= batchSize) {
+                executor.execute(this::flush);
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                executor.schedule(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                }, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // the database is shutting down, write right away
+            flush();
+        }
+    }
+
+    /**
+     * Write all queued updates, waiting until they are committed
+     */
+    synchronized void flush() {
+        while (!pending.isEmpty()) {
+            List<Write> batch = new ArrayList<>(Math.min(pending.size(), batchSize));
+            pending.drainTo(batch, batchSize);
+            write(batch);
+        }
+    }
+
+    /**
+     * Write a batch of updates in a single transaction.
+     * If the transaction fails, the updates are written one by one so that one bad update does not discard the others.
+     * @param batch The updates
+     */
+    private void write(List<Write> batch) {
+        List<String> queries = new ArrayList<>(batch.size());
+        List<String[]> data = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            queries.add(write.query);
+            data.add(write.data);
+        }
+        try {
+            db.updateTransaction(queries, data);
+        } catch (SQLException e) {
+            log.error("Could not write {} queued updates in one transaction, writing them one by one.", batch.size(), e);
+            for (Write write : batch) {
+                try {
+                    db.update(write.query, write.data);
+                } catch (SQLException e1) {
+                    log.error("Could not write queued update '{}'.", write.query, e1);
+                }
+            }
+        }
+    }
+}
@@ -40,8 +40,6 @@ public class AddRoleStep implements EditStep {
                     valid = false;
                     e.getChannel().sendMessage("A role with this name already exists. Choose a different name:").queue();
                 }
-                else if (out == 2)
-                    e.getChannel().sendMessage("New role could not be added to database.").queue();
             } catch (Exception ex) {
                 e.getChannel().sendMessage("Invalid input: Make sure it's in the format of `[amount]:[role name]`, like `1:DPS`.\nMake the role `flex only` by prepending its name with an exclamation mark (`!`) or by setting the amount to `0`.").queue();
                 valid = false;
@@ -65,8 +65,6 @@ public class ChangeAmountStep implements EditStep {
                     raid.updateMessage();
                 } else if (out == 1)
                     e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Amount could not be changed, number of users > new amount.").queue());
-                else if (out == 2)
-                    e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Amount could not be changed in database.").queue());
             } else {
                 e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Invalid input, amount should be > 0. Try again.").queue());
                 finished = false;
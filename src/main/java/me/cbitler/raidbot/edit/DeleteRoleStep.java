@@ -47,8 +47,6 @@ public class DeleteRoleStep implements EditStep {
     			raid.updateMessage();
     		} else if (out == 1)
     			e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Role could not be deleted because users already signed up for it.").queue());
-    		else if (out == 2)
-    			e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Role could not be deleted from database.").queue());
     	}
     	return valid;
     }
@@ -64,11 +64,13 @@ public class EditDateStep implements EditStep {
 
         raid.setDate(dateString);
 
-        if (raid.updateDateDB()) {
-            e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Date successfully updated in database.").queue());
-        } else {
-            e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Date could not be updated in database.").queue());
-        }
+        raid.updateDateDB().thenAccept(updated -> {
+            if (updated) {
+                e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Date successfully updated in database.").queue());
+            } else {
+                e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Date could not be updated in database.").queue());
+            }
+        });
         raid.updateMessage();
 
         return true;
@@ -24,11 +24,13 @@ public class EditDescriptionStep implements EditStep {
     public boolean handleDM(MessageReceivedEvent e) {
         Raid raid = RaidManager.getRaid(messageID);
         raid.setDescription(e.getMessage().getContentRaw());
-        if (raid.updateDescriptionDB()) {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Description successfully updated in database.").queue());
-        } else {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Description could not be updated in database.").queue());
-        }
+        raid.updateDescriptionDB().thenAccept(updated -> {
+        	if (updated) {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Description successfully updated in database.").queue());
+        	} else {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Description could not be updated in database.").queue());
+        	}
+        });
         raid.updateMessage();
 
         return true;
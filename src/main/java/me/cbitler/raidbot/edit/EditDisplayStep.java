@@ -39,11 +39,13 @@ public class EditDisplayStep implements EditStep {
 
     	Raid raid = RaidManager.getRaid(messageID);
         raid.setDisplayShort(choiceID == 2);
-        if (raid.updateDisplayShortDB()) {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Display format successfully updated in database.").queue());
-        } else {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Display format could not be updated in database.").queue());
-        }
+        raid.updateDisplayShortDB().thenAccept(updated -> {
+        	if (updated) {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Display format successfully updated in database.").queue());
+        	} else {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Display format could not be updated in database.").queue());
+        	}
+        });
         raid.updateMessage();
 
         return true;
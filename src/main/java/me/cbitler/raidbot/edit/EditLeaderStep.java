@@ -25,11 +25,13 @@ public class EditLeaderStep implements EditStep {
         Raid raid = RaidManager.getRaid(messageID);
         int res = raid.setLeader(e.getMessage().getContentRaw());
         if (res == 0) {
-        	if (raid.updateLeaderDB()) {
-        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Leader successfully updated in database.").queue());
-        	} else {
-        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Leader could not be updated in database.").queue());
-        	}
+        	raid.updateLeaderDB().thenAccept(updated -> {
+        		if (updated) {
+        			e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Leader successfully updated in database.").queue());
+        		} else {
+        			e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Leader could not be updated in database.").queue());
+        		}
+        	});
         	raid.updateMessage();
         } else if (res == 1) {
         	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("No valid user found. Make sure to use the nickname or discord name of a guild member. Try again or type *cancel* to stop editing.").queue());
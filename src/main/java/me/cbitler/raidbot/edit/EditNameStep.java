@@ -24,11 +24,13 @@ public class EditNameStep implements EditStep {
     public boolean handleDM(MessageReceivedEvent e) {
         Raid raid = RaidManager.getRaid(messageID);
         raid.setName(e.getMessage().getContentRaw());
-        if (raid.updateNameDB()) {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Name successfully updated in database.").queue());
-        } else {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Name could not be updated in database.").queue());
-        }
+        raid.updateNameDB().thenAccept(updated -> {
+        	if (updated) {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Name successfully updated in database.").queue());
+        	} else {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Name could not be updated in database.").queue());
+        	}
+        });
         raid.updateMessage();
 
         return true;
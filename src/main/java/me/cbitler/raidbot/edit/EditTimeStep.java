@@ -24,11 +24,13 @@ public class EditTimeStep implements EditStep {
     public boolean handleDM(MessageReceivedEvent e) {
         Raid raid = RaidManager.getRaid(messageID);
         raid.setTime(e.getMessage().getContentRaw());
-        if (raid.updateTimeDB()) {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Time successfully updated in database.").queue());
-        } else {
-        	e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Time could not be updated in database.").queue());
-        }
+        raid.updateTimeDB().thenAccept(updated -> {
+        	if (updated) {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Time successfully updated in database.").queue());
+        	} else {
+        		e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Time could not be updated in database.").queue());
+        	}
+        });
         raid.updateMessage();
 
         return true;
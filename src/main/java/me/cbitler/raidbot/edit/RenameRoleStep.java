@@ -54,12 +54,9 @@ public class RenameRoleStep implements EditStep {
     			e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Successfully renamed role.").queue());
     			raid.updateMessage();
     			finished = true;
-    		} else if (out == 1) {
+    		} else {
     			e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("A role with this name already exists. Choose a different new name:").queue());
     	    	finished = false;
-    		} else {
-    			e.getAuthor().openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("Role could not be updated in database.").queue());
-    			finished = true;
     		}
     	}
 
@@ -0,0 +1,18 @@
+package me.cbitler.raidbot.handlers;
+
+import me.cbitler.raidbot.server_settings.ServerSettings;
+import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+/**
+ * Keep the channel settings up to date when channels are deleted.
+ * Settings store channel IDs, so a renamed channel stays configured without any change.
+ */
+public class ChannelHandler extends ListenerAdapter {
+
+    @Override
+    public void onChannelDelete(ChannelDeleteEvent e) {
+        if (e.isFromGuild())
+            ServerSettings.channelDeleted(e.getGuild().getId(), e.getChannel().getId());
+    }
+}
@@ -0,0 +1,44 @@
+package me.cbitler.raidbot.handlers;
+
+import me.cbitler.raidbot.raids.RaidManager;
+import me.cbitler.raidbot.server_settings.ServerSettings;
+import me.cbitler.raidbot.utility.PermissionsUtil;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.role.RoleCreateEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdateNameEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+/**
+ * Keep the resolved role ids of the permission checks up to date when roles are created, renamed or deleted.
+ * Settings and events refer to roles by name, so a rename is also applied to them, unless another role
+ * still has the old name.
+ */
+public class RoleHandler extends ListenerAdapter {
+
+    @Override
+    public void onRoleCreate(RoleCreateEvent e) {
+        PermissionsUtil.refreshRoles(e.getGuild());
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent e) {
+        PermissionsUtil.refreshRoles(e.getGuild());
+    }
+
+    @Override
+    public void onRoleUpdateName(RoleUpdateNameEvent e) {
+        PermissionsUtil.refreshRoles(e.getGuild());
+        if (!PermissionsUtil.getRoleIndex(e.getGuild()).resolve(e.getOldName()).isEmpty())
+            return;
+
+        String serverId = e.getGuild().getId();
+        ServerSettings.renameRole(serverId, e.getOldName(), e.getNewName());
+        RaidManager.renamePermittedRole(serverId, e.getOldName(), e.getNewName());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent e) {
+        PermissionsUtil.forgetServer(e.getGuild().getId());
+    }
+}
@@ -0,0 +1,145 @@
+package me.cbitler.raidbot.raids;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage for events, their roles and their rosters.
+ * The events are kept in memory by {@link RaidManager} and {@link Raid}, a repository only persists the changes
+ * and restores the events on startup. Methods that return nothing may write in the background, errors are logged
+ * by the repository.
+ */
+public interface EventRepository {
+
+    /**
+     * The events read by {@link EventRepository#loadEvents(boolean)}
+     */
+    class LoadedEvents {
+        /* *
+         * the events with their roles (and rosters, unless they are loaded on demand) keyed by message id
+         */
+        public final Map<String, Raid> events = new LinkedHashMap<>();
+
+        /* *
+         * ids of events without roles or of roles and sign-ups whose event does not exist anymore
+         */
+        public final Set<String> orphans = new LinkedHashSet<>();
+
+        /* *
+         * number of rows (or records) read, for the log
+         */
+        public long rows;
+    }
+
+    /**
+     * Store a new event together with its roles
+     * @param raid The event, its roles already have their ids
+     * @return true if the event was stored, false otherwise
+     */
+    boolean insertEvent(Raid raid);
+
+    /**
+     * Load all events with their roles
+     * @param withRosters Whether the rosters are loaded as well, otherwise they are loaded on demand by {@link #loadRoster(Raid)}
+     * @return The loaded events, null if they could not be loaded
+     */
+    LoadedEvents loadEvents(boolean withRosters);
+
+    /**
+     * Load the roster (main and flex roles) of a single event into the event
+     * @param raid The event whose roster should be loaded
+     * @return true if the roster was loaded, false if it could not be read and nothing was added
+     */
+    boolean loadRoster(Raid raid);
+
+    /**
+     * Update the details of an event (name, description, date, time, leader, display format and permitted roles)
+     * @param raid The event
+     * @return Completes when the update is written, or exceptionally if it failed
+     */
+    CompletableFuture<Void> updateEvent(Raid raid);
+
+    /**
+     * Move ended events with their roles and rosters to the archive, all events in one batch.
+     * The archive is append-only, archived events are not loaded again.
+     * @param raidIds The events' message ids
+     * @return Completes when the events are archived, or exceptionally if they could not be archived and are unchanged
+     */
+    CompletableFuture<Void> archiveEvents(List<String> raidIds);
+
+    /**
+     * Delete several events with their roles and rosters at once
+     * @param raidIds The events' message ids
+     */
+    void deleteEvents(List<String> raidIds);
+
+    /**
+     * Add a role to an event
+     * @param raidId The event's message id
+     * @param role The role, with its id
+     */
+    void insertRole(String raidId, RaidRole role);
+
+    /**
+     * Update the name, amount and flex-only status of a role
+     * @param raidId The event's message id
+     * @param role The role
+     */
+    void updateRole(String raidId, RaidRole role);
+
+    /**
+     * Delete a role from an event
+     * @param raidId The event's message id
+     * @param role The role
+     */
+    void deleteRole(String raidId, RaidRole role);
+
+    /**
+     * Rename a role in the roster of an event
+     * @param raidId The event's message id
+     * @param oldName The current role name
+     * @param newName The new role name
+     */
+    void renameRosterRole(String raidId, String oldName, String newName);
+
+    /**
+     * Sign up a user for a main role, signing up twice with the same role and specialization has no effect
+     * @param raidId The event's message id
+     * @param user The sign-up
+     */
+    void addMainUser(String raidId, RaidUser user);
+
+    /**
+     * Sign up a user for a flex role, signing up twice with the same role and specialization has no effect
+     * @param raidId The event's message id
+     * @param user The sign-up
+     */
+    void addFlexUser(String raidId, RaidUser user);
+
+    /**
+     * Remove all main role sign-ups of a user
+     * @param raidId The event's message id
+     * @param userId The user's id
+     */
+    void removeMainUser(String raidId, String userId);
+
+    /**
+     * Remove all flex role sign-ups of a user
+     * @param raidId The event's message id
+     * @param userId The user's id
+     */
+    void removeFlexUser(String raidId, String userId);
+
+    /**
+     * Remove a specific flex role sign-up of a user
+     * @param raidId The event's message id
+     * @param userId The user's id
+     * @param role The role
+     * @param spec The specialization
+     */
+    void removeFlexUser(String raidId, String userId, String role, String spec);
+}
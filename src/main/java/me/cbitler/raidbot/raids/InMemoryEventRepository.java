@@ -0,0 +1,266 @@
+package me.cbitler.raidbot.raids;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the events in memory only, nothing survives a restart.
+ * This is meant for load tests and benchmarks of the roster logic without disk access.
+ * The repository stores copies, so the stored state only changes through the repository methods,
+ * just like a database.
+ */
+public class InMemoryEventRepository implements EventRepository {
+
+    /**
+     * The stored state of an event
+     */
+    private static final class StoredEvent {
+        String serverId, channelId, leaderId, name, description, date, time;
+        boolean isOpenWorld, isDisplayShort, isFractalEvent;
+        List<String> permittedRoles;
+        final List<RaidRole> roles = new ArrayList<>();
+        final List<RaidUser> main = new ArrayList<>();
+        final List<RaidUser> flex = new ArrayList<>();
+    }
+
+    private final Map<String, StoredEvent> events = new LinkedHashMap<>();
+    private final Map<String, StoredEvent> archive = new LinkedHashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean insertEvent(Raid raid) {
+        if (events.containsKey(raid.getMessageId()))
+            return false;
+        StoredEvent event = new StoredEvent();
+        event.serverId = raid.getServerId();
+        event.channelId = raid.getChannelId();
+        event.isOpenWorld = raid.isOpenWorld();
+        event.isFractalEvent = raid.isFractalEvent();
+        storeDetails(event, raid);
+        for (RaidRole role : raid.getRoles())
+            event.roles.add(copy(role));
+        events.put(raid.getMessageId(), event);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized LoadedEvents loadEvents(boolean withRosters) {
+        LoadedEvents result = new LoadedEvents();
+        for (Map.Entry<String, StoredEvent> entry : events.entrySet()) {
+            StoredEvent event = entry.getValue();
+            Raid raid = new Raid(entry.getKey(), event.serverId, event.channelId, event.leaderId, event.name, event.description,
+                    event.date, event.time, event.isOpenWorld, event.isDisplayShort, event.isFractalEvent,
+                    new ArrayList<>(event.permittedRoles));
+            for (RaidRole role : event.roles)
+                raid.roles.add(copy(role));
+            if (withRosters)
+                attachRoster(raid, event);
+            else
+                raid.rosterLoaded = false;
+            result.rows++;
+
+            if (raid.roles.size() > 0)
+                result.events.put(entry.getKey(), raid);
+            else
+                result.orphans.add(entry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean loadRoster(Raid raid) {
+        StoredEvent event = events.get(raid.getMessageId());
+        if (event != null)
+            attachRoster(raid, event);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized CompletableFuture<Void> updateEvent(Raid raid) {
+        StoredEvent event = events.get(raid.getMessageId());
+        if (event != null)
+            storeDetails(event, raid);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized CompletableFuture<Void> archiveEvents(List<String> raidIds) {
+        for (String raidId : raidIds) {
+            StoredEvent event = events.remove(raidId);
+            if (event != null)
+                archive.putIfAbsent(raidId, event);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void deleteEvents(List<String> raidIds) {
+        for (String raidId : raidIds)
+            events.remove(raidId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void insertRole(String raidId, RaidRole role) {
+        StoredEvent event = events.get(raidId);
+        if (event != null && findRole(event, role.getId()) == null)
+            event.roles.add(copy(role));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void updateRole(String raidId, RaidRole role) {
+        StoredEvent event = events.get(raidId);
+        RaidRole stored = event == null ? null : findRole(event, role.getId());
+        if (stored != null) {
+            stored.setName(role.getName());
+            stored.setAmount(role.getAmount());
+            stored.setFlexOnly(role.isFlexOnly());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void deleteRole(String raidId, RaidRole role) {
+        StoredEvent event = events.get(raidId);
+        if (event != null)
+            event.roles.removeIf(stored -> stored.getId() == role.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void renameRosterRole(String raidId, String oldName, String newName) {
+        StoredEvent event = events.get(raidId);
+        if (event == null)
+            return;
+        for (RaidUser user : event.main) {
+            if (user.getRole().equals(oldName))
+                user.setRole(newName);
+        }
+        for (RaidUser user : event.flex) {
+            if (user.getRole().equals(oldName))
+                user.setRole(newName);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void addMainUser(String raidId, RaidUser user) {
+        StoredEvent event = events.get(raidId);
+        if (event != null)
+            addUnique(event.main, user);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void addFlexUser(String raidId, RaidUser user) {
+        StoredEvent event = events.get(raidId);
+        if (event != null)
+            addUnique(event.flex, user);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void removeMainUser(String raidId, String userId) {
+        StoredEvent event = events.get(raidId);
+        if (event != null)
+            event.main.removeIf(user -> user.getId().equals(userId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void removeFlexUser(String raidId, String userId) {
+        StoredEvent event = events.get(raidId);
+        if (event != null)
+            event.flex.removeIf(user -> user.getId().equals(userId));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void removeFlexUser(String raidId, String userId, String role, String spec) {
+        StoredEvent event = events.get(raidId);
+        if (event != null)
+            event.flex.removeIf(user -> user.getId().equals(userId) && user.getRole().equals(role) && user.getSpec().equals(spec));
+    }
+
+    private static void storeDetails(StoredEvent event, Raid raid) {
+        event.leaderId = raid.getRaidLeaderId();
+        event.name = raid.getName();
+        event.description = raid.getDescription();
+        event.date = raid.getDate();
+        event.time = raid.getTime();
+        event.isDisplayShort = raid.isDisplayShort();
+        event.permittedRoles = new ArrayList<>(raid.getPermittedDiscordRoles());
+    }
+
+    private static void attachRoster(Raid raid, StoredEvent event) {
+        for (RaidUser user : event.main)
+            raid.addUser(user.getId(), user.getName(), user.getSpec(), user.getRole(), false, false);
+        for (RaidUser user : event.flex)
+            raid.addUserFlexRole(user.getId(), user.getName(), user.getSpec(), user.getRole(), false, false);
+    }
+
+    /**
+     * Add a copy of a sign-up unless the user is already signed up with the same role and specialization
+     * @param users The stored sign-ups
+     * @param user The sign-up
+     */
+    private static void addUnique(List<RaidUser> users, RaidUser user) {
+        for (RaidUser stored : users) {
+            if (stored.getId().equals(user.getId()) && stored.getRole().equals(user.getRole())
+                    && stored.getSpec().equals(user.getSpec()))
+                return;
+        }
+        users.add(new RaidUser(user.getId(), user.getName(), user.getSpec(), user.getRole()));
+    }
+
+    private static RaidRole findRole(StoredEvent event, int id) {
+        for (RaidRole role : event.roles) {
+            if (role.getId() == id)
+                return role;
+        }
+        return null;
+    }
+
+    private static RaidRole copy(RaidRole role) {
+        RaidRole copy = new RaidRole(role.getAmount(), role.getName());
+        copy.setFlexOnly(role.isFlexOnly());
+        copy.setId(role.getId());
+        return copy;
+    }
+}
@@ -81,6 +81,10 @@ public class PendingRaid {
         this.time = time;
     }
 
+    /**
+     * Get the announcement channel
+     * @return The ID of the announcement channel
+     */
     public String getAnnouncementChannel() {
         return announcementChannel;
     }
@@ -1,7 +1,6 @@
 package me.cbitler.raidbot.raids;
 
 import me.cbitler.raidbot.RaidBot;
-import me.cbitler.raidbot.database.Database;
 import me.cbitler.raidbot.server_settings.ServerSettings;
 import me.cbitler.raidbot.utility.PermissionsUtil;
 import me.cbitler.raidbot.utility.Reactions;
@@ -9,9 +8,14 @@ import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.entities.emoji.RichCustomEmoji;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.requests.restaction.MessageEditAction;
 
-import java.sql.SQLException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,17 +23,29 @@ import org.apache.logging.log4j.Logger;
 /**
  * Represents a raid and has methods for adding/removing users, user flex roles,
  * etc
+ *
+ * The roster and the roles of a raid are guarded by the raid's monitor. Every method that reads or changes them
+ * is synchronized on the raid, so sign-ups for one event are serialized while different events are handled in parallel.
+ * Callers that combine several calls into one decision (e.g. checking whether a role is full and then adding a user)
+ * have to hold the lock of the raid for the whole sequence.
+ *
+ * Changes are applied in memory first and then handed to the {@link EventRepository}, which writes them without
+ * blocking the event threads. Storage errors of role changes and sign-ups are logged by the repository.
  */
 public class Raid {
     private static final Logger log = LogManager.getLogger(Raid.class);
 
     String messageId, name, description, date, time, serverId, channelId, raidLeaderId;
     List<RaidRole> roles = new ArrayList<RaidRole>();
-    HashMap<RaidUser, String> userToRole = new HashMap<RaidUser, String>();
-    HashMap<RaidUser, List<FlexRole>> usersToFlexRoles = new HashMap<>();
+    Roster roster = new Roster();
     HashMap<String, String> userIDsToNicknames = new HashMap<>();
     List<String> permittedDiscordRoles = new ArrayList<String>();
 
+    /* *
+     * the ids of the permitted discord roles, resolved on the first check and reset when the permitted roles change
+     */
+    private PermissionsUtil.ResolvedRoles permittedRoleIds;
+
     String flexRolesName = "Flex Roles / Backup";
 
     /* *
@@ -47,6 +63,21 @@ public class Raid {
      */
     boolean isFractalEvent;
 
+    /* *
+     * whether the roster (main and flex roles) was loaded from the database, false for events loaded lazily on startup
+     */
+    volatile boolean rosterLoaded = true;
+
+    /* *
+     * content hash of the embed currently shown in the event message, null if unknown
+     */
+    AtomicReference<byte[]> renderedEmbedHash = new AtomicReference<>();
+
+    /* *
+     * renders the roster texts, caching the text of every role until its membership changes
+     */
+    RosterRenderer renderer = new RosterRenderer(this);
+
     /**
      * Create a new Raid with the specified data
      *
@@ -159,17 +190,27 @@ public class Raid {
     }
 
     /**
-     * Updates the display-short-message flag in the database
+     * Updates the display-short-message flag in the database.
+     * The update runs on the database thread.
+     * @return Completes with true if the update was written, false otherwise
      */
-    public boolean updateDisplayShortDB() {
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `isDisplayShort`=? WHERE `raidId`=?",
-                    new String[] { Boolean.toString(isDisplayShort), messageId });
-        } catch (SQLException e) {
-            log.error("Error while updating isDisplayShorts for event {} in the database.", messageId, e);
-            return false;
-        }
-        return true;
+    public CompletableFuture<Boolean> updateDisplayShortDB() {
+        return updateDetailsDB("display format");
+    }
+
+    /**
+     * Writes the details of the raid (everything except roles and roster) to the event repository
+     * @param detail The changed detail, for the log
+     * @return Completes with true if the update was written, false otherwise
+     */
+    private CompletableFuture<Boolean> updateDetailsDB(String detail) {
+        return RaidBot.getInstance().getEventRepository().updateEvent(this)
+                .handle((done, e) -> {
+                    if (e == null)
+                        return true;
+                    log.error("Error updating the {} of event {}.", detail, messageId, e);
+                    return false;
+                });
     }
 
     /**
@@ -191,16 +232,12 @@ public class Raid {
     }
 
     /**
-     * Updates the name of the raid in the database
+     * Updates the name of the raid in the database.
+     * The update runs on the database thread.
+     * @return Completes with true if the update was written, false otherwise
      */
-    public boolean updateNameDB() {
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `name`=? WHERE `raidId`=?", new String[] { name, messageId });
-        } catch (SQLException e) {
-            log.error("Error updating name for raid {}.", messageId, e);
-            return false;
-        }
-        return true;
+    public CompletableFuture<Boolean> updateNameDB() {
+        return updateDetailsDB("name");
     }
 
     /**
@@ -231,16 +268,12 @@ public class Raid {
     }
 
     /**
-     * Updates the leader of the raid in the database
+     * Updates the leader of the raid in the database.
+     * The update runs on the database thread.
+     * @return Completes with true if the update was written, false otherwise
      */
-    public boolean updateLeaderDB() {
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `leader`=? WHERE `raidId`=?", new String[] { raidLeaderId, messageId });
-        } catch (SQLException e) {
-            log.error("Failed to update leader id for event {}", messageId, e);
-            return false;
-        }
-        return true;
+    public CompletableFuture<Boolean> updateLeaderDB() {
+        return updateDetailsDB("leader");
     }
 
     /**
@@ -262,17 +295,12 @@ public class Raid {
     }
 
     /**
-     * Updates the description of the raid in the database
+     * Updates the description of the raid in the database.
+     * The update runs on the database thread.
+     * @return Completes with true if the update was written, false otherwise
      */
-    public boolean updateDescriptionDB() {
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `description`=? WHERE `raidId`=?",
-                    new String[] { description, messageId });
-        } catch (SQLException e) {
-            log.error("Error updating the description of event {}", messageId, e);
-            return false;
-        }
-        return true;
+    public CompletableFuture<Boolean> updateDescriptionDB() {
+        return updateDetailsDB("description");
     }
 
     /**
@@ -294,17 +322,12 @@ public class Raid {
     }
 
     /**
-     * Updates the date of the raid in the database
+     * Updates the date of the raid in the database.
+     * The update runs on the database thread.
+     * @return Completes with true if the update was written, false otherwise
      */
-    public boolean updateDateDB() {
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `date`=? WHERE `raidId`=?",
-                    new String[] { date, messageId });
-        } catch (SQLException e) {
-            log.error("Error updating date of event {}.", messageId, e);
-            return false;
-        }
-        return true;
+    public CompletableFuture<Boolean> updateDateDB() {
+        return updateDetailsDB("date");
     }
 
     /**
@@ -326,17 +349,12 @@ public class Raid {
     }
 
     /**
-     * Updates the time of the raid in the database
+     * Updates the time of the raid in the database.
+     * The update runs on the database thread.
+     * @return Completes with true if the update was written, false otherwise
      */
-    public boolean updateTimeDB() {
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `time`=? WHERE `raidId`=?",
-                    new String[] { time, messageId });
-        } catch (SQLException e) {
-            log.error("Error updating time for event {}.", messageId, e);
-            return false;
-        }
-        return true;
+    public CompletableFuture<Boolean> updateTimeDB() {
+        return updateDetailsDB("time");
     }
 
     /**
@@ -369,25 +387,25 @@ public class Raid {
     /**
      * Add a new role to the event
      * @param newrole new raid role
-     * @return 0 success, 1 role exists, 2 SQL error
+     * @return 0 success, 1 role exists
      */
-    public int addRole(RaidRole newrole) {
+    public synchronized int addRole(RaidRole newrole) {
         for (RaidRole role : roles) {
             if (role.getName().equalsIgnoreCase(newrole.getName())) {
                 return 1;
             }
         }
+        // new roles are appended, their id is one higher than any existing id
+        int newId = 0;
+        for (RaidRole role : roles) {
+            newId = Math.max(newId, role.getId() + 1);
+        }
+        newrole.setId(newId);
         roles.add(newrole);
+        renderer.invalidateAll();
 
-        String rolesString = RaidManager.formatRolesForDatabase(roles);
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `roles`=? WHERE `raidId`=?",
-                    new String[] { rolesString, messageId });
-            return 0;
-        } catch (SQLException e) {
-            log.error("Error updating roles for event {}.", messageId, e);
-            return 2;
-        }
+        RaidBot.getInstance().getEventRepository().insertRole(messageId, newrole);
+        return 0;
     }
 
 
@@ -395,9 +413,10 @@ public class Raid {
      * Rename a role of the event
      * @param id the role id
      * @param newname new name for the role
-     * @return 0 success, 1 role exists, 2 SQL error
+     * @return 0 success, 1 role exists
      */
-    public int renameRole(int id, String newname) {
+    public synchronized int renameRole(int id, String newname) {
+        ensureRosterLoaded();
         for (RaidRole role : roles) {
             if (role.getName().equalsIgnoreCase(newname)) {
                 return 1;
@@ -406,34 +425,15 @@ public class Raid {
         String oldName = roles.get(id).getName();
         roles.get(id).setName(newname);
 
-        // iterate over users' roles and rename
-        for (Map.Entry<RaidUser, String> user : userToRole.entrySet()) {
-            if (user.getValue().equals(oldName))
-                user.setValue(newname);
-        }
-        for (Map.Entry<RaidUser, List<FlexRole>> flex : usersToFlexRoles.entrySet()) {
-            for (FlexRole frole : flex.getValue()) {
-                if (frole.getRole().equals(oldName))
-                    frole.setRole(newname);
-            }
-        }
+        roster.renameRole(oldName, newname);
+        renderer.invalidateAll();
 
         // rename in database
-        String rolesString = RaidManager.formatRolesForDatabase(roles);
-        try {
-            Database db = RaidBot.getInstance().getDatabase();
-            db.update("UPDATE `raids` SET `roles`=? WHERE `raidId`=?",
-                    new String[] { rolesString, messageId });
-            db.update("UPDATE `raidUsers` SET `role`=? WHERE `role`=? AND `raidId`=?",
-                    new String[] { newname, oldName, messageId });
-            db.update("UPDATE `raidUsersFlexRoles` SET `role`=? WHERE `role`=? AND `raidId`=?",
-                    new String[] { newname, oldName, messageId });
+        EventRepository repository = RaidBot.getInstance().getEventRepository();
+        repository.updateRole(messageId, roles.get(id));
+        repository.renameRosterRole(messageId, oldName, newname);
 
-            return 0;
-        } catch (SQLException e) {
-            log.error("Error updating role name for role {} to {} on event {}.", oldName, newname, messageId, e);
-            return 2;
-        }
+        return 0;
     }
 
 
@@ -441,63 +441,52 @@ public class Raid {
      * Change amount for a role of the event
      * @param id the role id
      * @param newamount new amount for the role
-     * @return 0 success, 1 number of users > new amount, 2 SQL error
+     * @return 0 success, 1 number of users > new amount
      */
-    public int changeAmountRole(int id, int newamount) {
+    public synchronized int changeAmountRole(int id, int newamount) {
+        ensureRosterLoaded();
         String roleName = roles.get(id).getName();
         int numberUsers = getUserNumberInRole(roleName);
         if (newamount < numberUsers)
             return 1;
 
         roles.get(id).setAmount(newamount);
+        renderer.invalidateAll();
 
-        // rename in database
-        String rolesString = RaidManager.formatRolesForDatabase(roles);
-        try {
-            Database db = RaidBot.getInstance().getDatabase();
-            db.update("UPDATE `raids` SET `roles`=? WHERE `raidId`=?",
-                    new String[] { rolesString, messageId });
-            return 0;
-        } catch (SQLException e) {
-            log.error("Error updating the role amount for role {} to {} on event {}.", roleName, newamount, messageId, e);
-            return 2;
-        }
+        // update in database
+        RaidBot.getInstance().getEventRepository().updateRole(messageId, roles.get(id));
+        return 0;
     }
 
     /**
      * Change flex only status of a role
      * @param id the role id
      * @param newStatus new amount for the role
-     * @return 0 success, 1 number of users > 0 when enabling flexOnly, 2 SQL error
+     * @return 0 success, 1 number of users > 0 when enabling flexOnly
      */
-    public int changeFlexOnlyRole(int id, boolean newStatus) {
+    public synchronized int changeFlexOnlyRole(int id, boolean newStatus) {
+        ensureRosterLoaded();
         String roleName = roles.get(id).getName();
         int numberUsers = getUserNumberInRole(roleName);
         if (0 < numberUsers)
             return 1;
 
         roles.get(id).setFlexOnly(newStatus);
+        renderer.invalidateAll();
 
-        // rename in database
-        String rolesString = RaidManager.formatRolesForDatabase(roles);
-        try {
-            Database db = RaidBot.getInstance().getDatabase();
-            db.update("UPDATE `raids` SET `roles`=? WHERE `raidId`=?",
-                    new String[] { rolesString, messageId });
-            return 0;
-        } catch (SQLException e) {
-            log.error("Error flex-only on role {} to {} for event {}.", roleName, newStatus, messageId, e);
-            return 2;
-        }
+        // update in database
+        RaidBot.getInstance().getEventRepository().updateRole(messageId, roles.get(id));
+        return 0;
     }
 
 
     /**
      * Delete a role from the event
      * @param id the role id
-     * @return 0 success, 1 number of users > 0, 2 SQL error
+     * @return 0 success, 1 number of users > 0
      */
-    public int deleteRole(int id) {
+    public synchronized int deleteRole(int id) {
+        ensureRosterLoaded();
         String roleName = roles.get(id).getName();
         int numberUsers = getUserNumberInRole(roleName);
         int numberUsersFlex = getUserNumberInFlexRole(roleName);
@@ -505,19 +494,12 @@ public class Raid {
         if (numberUsers > 0 || numberUsersFlex > 0)
             return 1;
 
-        roles.remove(id);
+        RaidRole removed = roles.remove(id);
+        renderer.invalidateAll();
 
         // delete in database
-        String rolesString = RaidManager.formatRolesForDatabase(roles);
-        try {
-            Database db = RaidBot.getInstance().getDatabase();
-            db.update("UPDATE `raids` SET `roles`=? WHERE `raidId`=?",
-                    new String[] { rolesString, messageId });
-            return 0;
-        } catch (SQLException e) {
-            log.error("Error deleting role {} from event {}.", roleName, messageId, e);
-            return 2;
-        }
+        RaidBot.getInstance().getEventRepository().deleteRole(messageId, removed);
+        return 0;
     }
 
 
@@ -537,13 +519,14 @@ public class Raid {
      * @param role The role to check
      * @return True if it is valid and not full, false otherwise
      */
-    public boolean isValidNotFullRole(String role, boolean flex) {
+    public synchronized boolean isValidNotFullRole(String role, boolean flex) {
+        ensureRosterLoaded();
         RaidRole r = getRole(role);
 
         if (r != null) {
             if(r.isFlexOnly() && !flex) return false;
             int max = r.getAmount();
-            if (getUserNumberInRole(role) < max) {
+            if (roster.getMainCount(role) < max) {
                 return true;
             }
         }
@@ -584,13 +567,7 @@ public class Raid {
      * @return The number of users in the role
      */
     private int getUserNumberInRole(String role) {
-        int inRole = 0;
-        for (Map.Entry<RaidUser, String> entry : userToRole.entrySet()) {
-            if (entry.getValue().equalsIgnoreCase(role))
-                inRole += 1;
-        }
-
-        return inRole;
+        return roster.getMainCount(role);
     }
 
     /**
@@ -600,17 +577,7 @@ public class Raid {
      * @return The number of users in the role
      */
     private int getUserNumberInFlexRole(String role) {
-        int inRole = 0;
-        for (Map.Entry<RaidUser, List<FlexRole>> flex : usersToFlexRoles.entrySet()) {
-            if (flex.getKey() != null) {
-                for (FlexRole frole : flex.getValue()) {
-                    if (frole.getRole().equalsIgnoreCase(role))
-                        inRole += 1;
-                }
-            }
-        }
-
-        return inRole;
+        return roster.getFlexCount(role);
     }
 
     /**
@@ -619,15 +586,28 @@ public class Raid {
      * @param role The name of the role
      * @return The users in the role
      */
-    public List<RaidUser> getUsersInRole(String role) {
-        List<RaidUser> users = new ArrayList<>();
-        for (Map.Entry<RaidUser, String> entry : userToRole.entrySet()) {
-            if (entry.getValue().equalsIgnoreCase(role)) {
-                users.add(entry.getKey());
-            }
-        }
+    public synchronized List<RaidUser> getUsersInRole(String role) {
+        ensureRosterLoaded();
+        return roster.getMainInRole(role);
+    }
 
-        return users;
+    /**
+     * Loads the roster from the database if this event was loaded without it.
+     * Every method that reads or changes the roster calls this first. If the roster cannot be read, the sign-up,
+     * change or render is refused with an exception instead of working on an empty roster, and the next access
+     * tries to load it again.
+     * @throws IllegalStateException if the roster could not be loaded
+     */
+    private void ensureRosterLoaded() {
+        if (rosterLoaded)
+            return;
+        synchronized (this) {
+            if (rosterLoaded)
+                return;
+            if (!RaidManager.loadRoster(this))
+                throw new IllegalStateException("Roster of event " + messageId + " could not be loaded.");
+            rosterLoaded = true;
+        }
     }
 
     /**
@@ -662,24 +642,20 @@ public class Raid {
      *                  when the roles are loaded from the database.
      * @return true if the user was added, false otherwise
      */
-    public boolean addUser(String id, String name, String spec, String role, boolean db_insert,
+    public synchronized boolean addUser(String id, String name, String spec, String role, boolean db_insert,
             boolean update_message) {
         RaidUser user = new RaidUser(id, name, spec, role);
 
         if (db_insert) {
-            try {
-                RaidBot.getInstance().getDatabase()
-                        .update("INSERT INTO `raidUsers` (`userId`, `username`, `spec`, `role`, `raidId`)"
-                                + " VALUES (?,?,?,?,?)", new String[] { id, name, spec, role, this.messageId });
-            } catch (SQLException e) {
-                return false;
-            }
+            // the roster loader itself adds users without inserting them
+            ensureRosterLoaded();
+            RaidBot.getInstance().getEventRepository().addMainUser(messageId, user);
         }
 
-        userToRole.put(user, role);
-        usersToFlexRoles.computeIfAbsent(new RaidUser(id, name, "", ""), k -> new ArrayList<FlexRole>());
+        roster.addMain(user);
         if (userIDsToNicknames.get(id) == null)
             userIDsToNicknames.put(id, getNicknameOnServer(id, serverId));
+        renderer.invalidateRoles(getRolesOfUser(id));
 
         if (update_message) {
             updateMessage();
@@ -700,28 +676,20 @@ public class Raid {
      *                  when the roles are loaded from the database.
      * @return true if the user was added, false otherwise
      */
-    public boolean addUserFlexRole(String id, String name, String spec, String role, boolean db_insert,
+    public synchronized boolean addUserFlexRole(String id, String name, String spec, String role, boolean db_insert,
             boolean update_message) {
-        RaidUser user = new RaidUser(id, name, "", "");
-        FlexRole frole = new FlexRole(spec, role);
+        RaidUser user = new RaidUser(id, name, spec, role);
 
         if (db_insert) {
-            try {
-                RaidBot.getInstance().getDatabase()
-                        .update("INSERT INTO `raidUsersFlexRoles` (`userId`, `username`, `spec`, `role`, `raidId`)"
-                                + " VALUES (?,?,?,?,?)", new String[] { id, name, spec, role, this.messageId });
-            } catch (Exception e) {
-                return false;
-            }
+            ensureRosterLoaded();
+            RaidBot.getInstance().getEventRepository().addFlexUser(messageId, user);
         }
 
-        if (usersToFlexRoles.get(user) == null) {
-            usersToFlexRoles.put(user, new ArrayList<FlexRole>());
-        }
+        roster.addFlex(user);
         if (userIDsToNicknames.get(id) == null)
             userIDsToNicknames.put(id, getNicknameOnServer(id, serverId));
 
-        usersToFlexRoles.get(user).add(frole);
+        renderer.invalidateRoles(getRolesOfUser(id));
         if (update_message) {
             updateMessage();
         }
@@ -735,7 +703,7 @@ public class Raid {
      * @param name      The name of the user
      * @return true if the user was added, false otherwise
      */
-    public boolean addUserOpenWorld(String id, String name) {
+    public synchronized boolean addUserOpenWorld(String id, String name) {
         boolean success = false;
 
         String roleName = roles.get(0).getName();
@@ -753,13 +721,9 @@ public class Raid {
      * @param id The id of the user
      * @return True if they are in the raid, false otherwise
      */
-    public boolean isUserInRaid(String id) {
-        for (Map.Entry<RaidUser, String> entry : userToRole.entrySet()) {
-            if (entry.getKey().getId().equalsIgnoreCase(id)) {
-                return true;
-            }
-        }
-        return false;
+    public synchronized boolean isUserInRaid(String id) {
+        ensureRosterLoaded();
+        return roster.isInMain(id);
     }
 
     /**
@@ -768,36 +732,17 @@ public class Raid {
      *
      * @param id The user's id
      */
-    public boolean removeUser(String id) {
-        boolean found = false;
-        Iterator<Map.Entry<RaidUser, String>> users = userToRole.entrySet().iterator();
-        while (users.hasNext()) {
-            Map.Entry<RaidUser, String> user = users.next();
-            if (user.getKey().getId().equalsIgnoreCase(id)) {
-                users.remove();
-                found = true;
-            }
-        }
+    public synchronized boolean removeUser(String id) {
+        ensureRosterLoaded();
+        Set<String> affectedRoles = getRolesOfUser(id);
+        boolean found = roster.removeMain(id);
+        found |= roster.removeFlex(id);
 
-        Iterator<Map.Entry<RaidUser, List<FlexRole>>> usersFlex = usersToFlexRoles.entrySet().iterator();
-        while (usersFlex.hasNext()) {
-            Map.Entry<RaidUser, List<FlexRole>> userFlex = usersFlex.next();
-            if (userFlex.getKey().getId().equalsIgnoreCase(id)) {
-                usersFlex.remove();
-                found = true;
-            }
-        }
-
-        try {
-            RaidBot.getInstance().getDatabase().update("DELETE FROM `raidUsers` WHERE `userId` = ? AND `raidId` = ?",
-                    new String[] { id, getMessageId() });
-            RaidBot.getInstance().getDatabase().update(
-                    "DELETE FROM `raidUsersFlexRoles` WHERE `userId` = ? and `raidId` = ?",
-                    new String[] { id, getMessageId() });
-        } catch (SQLException e) {
-            log.error("Error while removing a user from roles and/or flex roles on event {}.", getMessageId(), e);
-        }
+        EventRepository repository = RaidBot.getInstance().getEventRepository();
+        repository.removeMainUser(messageId, id);
+        repository.removeFlexUser(messageId, id);
 
+        renderer.invalidateRoles(affectedRoles);
         if (found)
             updateMessage();
 
@@ -809,29 +754,98 @@ public class Raid {
      *
      * @param logLinks The list of links
      */
-    public void messagePlayersWithLogLinks(List<String> logLinks) {
+    public synchronized void messagePlayersWithLogLinks(List<String> logLinks) {
+        ensureRosterLoaded();
         String logLinkMessage = "ArcDPS reports from **" + this.getName() + "**:\n";
         for (String link : logLinks) {
             logLinkMessage += (link + "\n");
         }
 
         final String finalLogLinkMessage = logLinkMessage;
-        for (RaidUser user : this.userToRole.keySet()) {
-            RaidBot.getInstance().getServer(this.serverId).getMemberById(user.id).getUser().openPrivateChannel()
+        for (String userId : roster.getMainUserIds()) {
+            RaidBot.getInstance().getServer(this.serverId).getMemberById(userId).getUser().openPrivateChannel()
                     .queue(privateChannel -> privateChannel.sendMessage(finalLogLinkMessage).queue());
         }
     }
 
     /**
-     * Update the embedded message for the raid
+     * Update the embedded message for the raid.
+     * Updates are coalesced, see {@link RaidMessageUpdater}.
      */
     public void updateMessage() {
+        RaidMessageUpdater.schedule(this);
+    }
+
+    /**
+     * Render the embedded message for the raid.
+     * The message is only edited if the embed differs from the one that is currently shown.
+     *
+     * @param blocking whether to wait for the edit to complete
+     */
+    void renderMessage(boolean blocking) {
+        ensureRosterLoaded();
         MessageEmbed embed = (isFractalEvent || isDisplayShort) ? buildEmbedShort(true) : buildEmbed(true);
+        byte[] hash = hashEmbed(embed);
+        byte[] previous = renderedEmbedHash.getAndSet(hash);
+        if (MessageDigest.isEqual(hash, previous)) {
+            return;
+        }
         try {
-            RaidBot.getInstance().getServer(getServerId()).getTextChannelById(getChannelId())
-                    .editMessageEmbedsById(getMessageId(), embed).queue();
+            MessageEditAction edit = RaidBot.getInstance().getServer(getServerId()).getTextChannelById(getChannelId())
+                    .editMessageEmbedsById(getMessageId(), embed);
+            if (blocking)
+                edit.complete();
+            else
+                edit.queue(null, error -> renderedEmbedHash.compareAndSet(hash, null));
         } catch (Exception ignored) {
+            renderedEmbedHash.compareAndSet(hash, null);
+        }
+    }
+
+    /**
+     * Remember the embed that is currently shown in the event message, so that updates without visible changes are skipped
+     *
+     * @param message the event message as retrieved from discord
+     */
+    void rememberRenderedEmbed(Message message) {
+        List<MessageEmbed> embeds = message.getEmbeds();
+        renderedEmbedHash.set(embeds.size() == 1 ? hashEmbed(embeds.get(0)) : null);
+    }
+
+    /**
+     * Computes a content hash of an embed.
+     * Only the visible text (title, description, fields and footer) is hashed, trimmed like discord does,
+     * so an embed built here and the same embed retrieved from discord have the same hash.
+     *
+     * @param embed the embed
+     * @return the SHA-256 hash of the embed's text
+     */
+    private static byte[] hashEmbed(MessageEmbed embed) {
+        StringBuilder text = new StringBuilder();
+        appendHashed(text, embed.getTitle());
+        appendHashed(text, embed.getDescription());
+        for (MessageEmbed.Field field : embed.getFields()) {
+            appendHashed(text, field.getName());
+            appendHashed(text, field.getValue());
+            text.append(field.isInline() ? '1' : '0');
         }
+        appendHashed(text, embed.getFooter() == null ? null : embed.getFooter().getText());
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Append a part of an embed to the hashed text, null and empty parts are the same
+     *
+     * @param text the hashed text
+     * @param part the part of the embed
+     */
+    private static void appendHashed(StringBuilder text, String part) {
+        text.append(part == null ? "" : part.trim()).append('\u0000');
     }
 
     /**
@@ -840,7 +854,7 @@ public class Raid {
      * @param provide_instr whether instructions should be provided
      * @return The embedded message representing this raid
      */
-    private MessageEmbed buildEmbed(boolean provide_instr) {
+    private synchronized MessageEmbed buildEmbed(boolean provide_instr) {
         EmbedBuilder builder = new EmbedBuilder();
         builder.setTitle(getName() + "\t ||ID: " + messageId + "||");
         builder.addField("Description:", getDescription(), false);
@@ -852,21 +866,22 @@ public class Raid {
         builder.addField("Date: ", getDate(), true);
         builder.addField("Time: ", getTime(), true);
         builder.addBlankField(false);
-        builder.addField("Roles:", buildRolesText(), true);
-        List<String> flexRolesText = buildFlexRolesText();
-        String currentFlexText = "";
+        builder.addField("Roles:", renderer.rolesText(), true);
+        List<String> flexRolesText = renderer.flexRolesText();
+        StringBuilder currentFlexText = new StringBuilder(MessageEmbed.VALUE_MAX_LENGTH);
         String nextFieldName = flexRolesName + ":";
-        for (int s = 0; s < flexRolesText.size(); s++) {
-            if (currentFlexText.length() + flexRolesText.get(s).length() <= 1024) {
-                currentFlexText += flexRolesText.get(s);
+        for (String roleText : flexRolesText) {
+            if (currentFlexText.length() + roleText.length() <= MessageEmbed.VALUE_MAX_LENGTH) {
+                currentFlexText.append(roleText);
             } else {
-                builder.addField(nextFieldName, currentFlexText, true);
+                builder.addField(nextFieldName, currentFlexText.toString(), true);
                 nextFieldName = "";
-                currentFlexText = flexRolesText.get(s);
+                currentFlexText.setLength(0);
+                currentFlexText.append(roleText);
             }
         }
-        if (currentFlexText.isEmpty() == false) {
-            builder.addField(nextFieldName, currentFlexText, true);
+        if (currentFlexText.length() > 0) {
+            builder.addField(nextFieldName, currentFlexText.toString(), true);
         }
         if (provide_instr && this.isOpenWorld == false) {
             builder.addBlankField(false);
@@ -907,15 +922,13 @@ public class Raid {
      * @param provide_instr whether instructions should be provided
      * @return The short embedded message representing this raid
      */
-    private MessageEmbed buildEmbedShort(boolean provide_instr) {
+    private synchronized MessageEmbed buildEmbedShort(boolean provide_instr) {
         EmbedBuilder builder = new EmbedBuilder();
         builder.setTitle(getName() + " - [" + getDate() + " " + getTime() + "]\t"
                 + "||ID: " + messageId + "||");
-        Set<String> usersInMain = new HashSet<String>();
-        String rolesTxt = buildRolesTextShort(usersInMain);
-        builder.addField("Roles:", rolesTxt, true);
+        builder.addField("Roles:", renderer.rolesTextShort(), true);
 
-        String flexText = buildFlexRolesTextShort(usersInMain);
+        String flexText = renderer.flexRolesTextShort();
         if (flexText.isEmpty() == false) {
             //builder.addBlankField(false);
             builder.addField(flexRolesName + ":", flexText, true);
@@ -924,230 +937,15 @@ public class Raid {
         return builder.build();
     }
 
-    /**
-     * collects a list of users for every role
-     * @param excludeUsers user ids to not include in the result, may be null
-     * @return the map containing a list of users for each role
-     */
-    private Map<String, List<RaidUser>> collectFlexUsersByRole(Set<String> excludeUsers) {
-        // collect names and specializations for each role
-        Map<String, List<RaidUser>> flexUsersByRole = new HashMap<String, List<RaidUser>>();
-        for (int r = 0; r < roles.size(); r++) {
-            flexUsersByRole.put(roles.get(r).getName(), new ArrayList<RaidUser>());
-        }
-
-        for (Map.Entry<RaidUser, List<FlexRole>> flex : usersToFlexRoles.entrySet()) {
-            if (flex.getKey() != null) {
-                if (excludeUsers == null || excludeUsers.contains(flex.getKey().getId()) == false) {
-                    for (FlexRole frole : flex.getValue()) {
-                        flexUsersByRole.get(frole.getRole()).add(new RaidUser(flex.getKey().id, flex.getKey().name, frole.spec, null));
-                    }
-                }
-            }
-        }
-        return flexUsersByRole;
-    }
-
-    /**
-     * Build the flex roles text, which includes a list of flex roles users are
-     * playing and their specs
-     *
-     * @return The flex role text
-     */
-    private List<String> buildFlexRolesText() {
-        List<String> textList = new ArrayList<String>();
-        if (isOpenWorld) {
-            String text = "";
-            for (Map.Entry<RaidUser, List<FlexRole>> flex : usersToFlexRoles.entrySet()) {
-                if (flex.getKey() != null && flex.getValue().isEmpty() == false) {
-                    String username = userIDsToNicknames.get(flex.getKey().getId());
-                    if (username == null)
-                        username = flex.getKey().getName();
-                    text += ("- " + username + "\n");
-                }
-            }
-            if (text.isEmpty() == false) {
-                textList.add(text);
-            }
-        } else {
-            Map<String, List<RaidUser>> flexUsersByRole = collectFlexUsersByRole(null);
-            for (int r = 0; r < roles.size(); r++) {
-                String text = "";
-                String roleName = roles.get(r).getName();
-                
-                for (RaidUser user : flexUsersByRole.get(roleName)) {
-                    String username = userIDsToNicknames.get(user.getId());
-                    if (username == null)
-                        username = user.getName();
-                    RichCustomEmoji userEmote = Reactions.getEmoteByName(user.getSpec());
-                    if(userEmote == null)
-                        text += ("- " + username + " (" + user.getSpec() + ")\n");
-                    else
-                        text += ("<:"+userEmote.getName()+":"+userEmote.getId()+"> " + username + "\n");
-                }
-                if (text.isEmpty() == false || roles.get(r).isFlexOnly()) {
-                    text = roleName + ":\n" + text + "\n";
-                    textList.add(text);
-                }
-            }
-        }
-
-        return textList;
-    }
-
-    /**
-     * Build the short flex roles text, which includes a list of flex roles users are
-     * playing and their specs
-     *
-     * @return The short flex role text
-     */
-    private String buildFlexRolesTextShort(Set<String> excludeUsers) {
-        String text = "";
-        if (isOpenWorld) {
-            for (Map.Entry<RaidUser, List<FlexRole>> flex : usersToFlexRoles.entrySet()) {
-                if (flex.getKey() != null && flex.getValue().isEmpty() == false) {
-                    if (text.isEmpty() == false)
-                        text += ", ";
-                    String username = userIDsToNicknames.get(flex.getKey().getId());
-                    if (username == null)
-                        username = flex.getKey().getName();
-                    text += username;
-                }
-            }
-        } else {
-            Map<String, List<RaidUser>> flexUsersByRole = collectFlexUsersByRole(excludeUsers);
-            for (int r = 0; r < roles.size(); r++) {
-                String roleName = roles.get(r).getName();
-                List<RaidUser> usersPerRole = flexUsersByRole.get(roleName);
-                if (usersPerRole.isEmpty() == false) {
-                    text += ("[ **" + roleName + "**: ");
-
-                    for (int u = 0; u < usersPerRole.size(); u++) {
-                        RaidUser user = usersPerRole.get(u);
-                        if (u != 0)
-                            text += ", ";
-                        String username = userIDsToNicknames.get(user.getId());
-                        if (username == null)
-                            username = user.getName();
-                        text += username;
-                    }
-                    text += " ] ";
-                }
-            }
-        }
-
-        return text;
-    }
-
-    /**
-     * Build the role text, which shows the roles users are playing in the raids
-     *
-     * @return The role text
-     */
-    private String buildRolesText() {
-        String text = "";
-        for (RaidRole role : roles) {
-            if(role.isFlexOnly()) continue;
-            List<RaidUser> raidUsersInRole = getUsersInRole(role.name);
-            text += "**" + role.name;
-            if (role.amount > 1) {
-                text += " ( " + raidUsersInRole.size() + " / " + role.amount + " )";
-            }
-            text += ":**\n";
-            for (RaidUser user : raidUsersInRole) {
-                String username = userIDsToNicknames.get(user.getId());
-                if (username == null)
-                    username = user.getName();
-                if (isOpenWorld) {
-                    text += ("- " + username + "\n");
-                } else {
-                    RichCustomEmoji userEmote = Reactions.getEmoteByName(user.spec);
-                    if(userEmote == null)
-                        text += "   - " + username + " (" + user.spec + ")\n";
-                    else
-                        text += "   <:"+userEmote.getName()+":"+userEmote.getId()+"> " + username + "\n";
-                }
-            }
-            text += "\n";
-        }
-        return text;
-    }
-
-    /**
-     * Build the short role text, which shows the roles users are playing in the raids
-     *
-     * @return The short role text
-     */
-    private String buildRolesTextShort(Set<String> usersInMain) {
-        String text = "";
-        for (RaidRole role : roles) {
-            if(role.isFlexOnly()) continue;
-            List<RaidUser> raidUsersInRole = getUsersInRole(role.getName());
-            if (isOpenWorld) {
-                text += "**" + role.getName();
-                if (role.getAmount() > 1)
-                {
-                    text += " ( " + raidUsersInRole.size() + " / " + role.getAmount() + ")";
-                }
-                text += ":**\n";
-
-                for (RaidUser user : raidUsersInRole) {
-                    String username = userIDsToNicknames.get(user.getId());
-                    if (username == null)
-                        username = user.getName();
-                    text += ("- " + username + "\n");
-                }
-                text += "\n";
-            } else {
-                for (int s = 0; s < role.getAmount(); s++) {
-                    text += "[ **" + role.getName() + "** ] ";
-                    if (s < raidUsersInRole.size()) {
-                        RaidUser user = raidUsersInRole.get(s);
-                        if (usersInMain != null)
-                            usersInMain.add(user.getId());
-                        String username = userIDsToNicknames.get(user.getId());
-                        if (username == null)
-                            username = user.getName();
-
-                        RichCustomEmoji userEmote = Reactions.getEmoteByName(user.getSpec());
-                        if(userEmote == null)
-                            text += username;
-                        else
-                            text += "<:"+userEmote.getName()+":"+userEmote.getId()+"> " + username;
-
-                        // add flex roles for that user
-                        List<FlexRole> userFlexRoles = usersToFlexRoles.get(new RaidUser(user.getId(), user.getName(), "", ""));
-                        if (userFlexRoles.isEmpty() == false) {
-                            text += "   (or ";
-                            Set<String> uniqueFlexRoles = new HashSet<String>();
-                            for (FlexRole frole : userFlexRoles) {
-                                uniqueFlexRoles.add(frole.getRole());
-                            }
-                            text += uniqueFlexRoles.toString() + ")";
-                        }
-                    }
-                    text += "\n";
-                }
-            }
-        }
-        text += "\n";
-        return text;
-    }
-
     /**
      * Get a List of RaidUsers from main roles in this raid by their ID
      *
      * @param id The user's ID
      * @return The List of RaidUsers if they are in this raid, null otherwise
      */
-    public ArrayList<RaidUser> getRaidUsersById(String id) {
-        ArrayList<RaidUser> raidUsers = new ArrayList<RaidUser>();
-        for (RaidUser user : userToRole.keySet()) {
-            if (user.getId().equalsIgnoreCase(id)) {
-                raidUsers.add(user);
-            }
-        }
-        return raidUsers;
+    public synchronized ArrayList<RaidUser> getRaidUsersById(String id) {
+        ensureRosterLoaded();
+        return new ArrayList<RaidUser>(roster.getMainOfUser(id));
     }
 
     /**
@@ -1156,39 +954,35 @@ public class Raid {
      * @param id The user's ID
      * @return The List of RaidUsers if they are in this raid, null otherwise
      */
-    public ArrayList<FlexRole> getRaidUsersFlexRolesById(String id) {
+    public synchronized ArrayList<FlexRole> getRaidUsersFlexRolesById(String id) {
+        ensureRosterLoaded();
         ArrayList<FlexRole> raidRoles = new ArrayList<FlexRole>();
-        for (RaidUser user : usersToFlexRoles.keySet()) {
-            if (user.getId().equalsIgnoreCase(id)) {
-                for(FlexRole fRole : usersToFlexRoles.get(user)){
-                    raidRoles.add(fRole);
-                }
-            }
+        for (RaidUser user : roster.getFlexOfUser(id)) {
+            raidRoles.add(new FlexRole(user.getSpec(), user.getRole()));
         }
         return raidRoles;
     }
 
+    /**
+     * Get the names of all roles a user is signed up for, as main or flex role
+     *
+     * @param id The user's ID
+     * @return The role names
+     */
+    private Set<String> getRolesOfUser(String id) {
+        return roster.getRolesOfUser(id);
+    }
+
     /**
      * Remove a user by their username
      *
      * @param name The name of the user being removed
      */
-    public void removeUserByName(String name) {
-        String idToRemove = "";
-        for (Map.Entry<RaidUser, String> entry : userToRole.entrySet()) {
-            if (entry.getKey().name.equalsIgnoreCase(name)) {
-                idToRemove = entry.getKey().id;
-                break;
-            }
-        }
-        if (idToRemove.isEmpty()) { // did not find the user in main roles, check flex roles
-            for (Map.Entry<RaidUser, List<FlexRole>> entry : usersToFlexRoles.entrySet()) {
-                if (entry.getKey().name.equalsIgnoreCase(name)) {
-                    idToRemove = entry.getKey().id;
-                    break;
-                }
-            }
-        }
+    public synchronized void removeUserByName(String name) {
+        ensureRosterLoaded();
+        String idToRemove = roster.findIdByName(name);
+        if (idToRemove == null)
+            idToRemove = "";
 
         removeUser(idToRemove);
     }
@@ -1199,22 +993,14 @@ public class Raid {
      *
      * @param id The id of the user being removed
      */
-    public void removeUserFromMainRoles(String id, boolean update_message) {
-        Iterator<Map.Entry<RaidUser, String>> users = userToRole.entrySet().iterator();
-        while (users.hasNext()) {
-            Map.Entry<RaidUser, String> user = users.next();
-            if (user.getKey().getId().equalsIgnoreCase(id)) {
-                users.remove();
-            }
-        }
+    public synchronized void removeUserFromMainRoles(String id, boolean update_message) {
+        ensureRosterLoaded();
+        Set<String> affectedRoles = getRolesOfUser(id);
+        roster.removeMain(id);
 
-        try {
-            RaidBot.getInstance().getDatabase().update("DELETE FROM `raidUsers` WHERE `userId` = ? AND `raidId` = ?",
-                    new String[] { id, getMessageId() });
-        } catch (SQLException e) {
-            log.error("Error while removing a user from main roles on event {}.", getMessageId(), e);
-        }
+        RaidBot.getInstance().getEventRepository().removeMainUser(messageId, id);
 
+        renderer.invalidateRoles(affectedRoles);
         if (update_message)
             updateMessage();
     }
@@ -1228,31 +1014,14 @@ public class Raid {
      * @param spec The class specialization that should be removed
      * @return true if user was signed up for this role and class, false otherwise
      */
-    public boolean removeUserFromFlexRoles(String id, String role, String spec, boolean update_message) {
-        boolean found = false;
-        Iterator<Map.Entry<RaidUser, List<FlexRole>>> users = usersToFlexRoles.entrySet().iterator();
-        while (users.hasNext()) {
-            Map.Entry<RaidUser, List<FlexRole>> user = users.next();
-            if (user.getKey().getId().equalsIgnoreCase(id)) {
-                Iterator<FlexRole> froles = user.getValue().iterator();
-                while (froles.hasNext()) {
-                    FlexRole frole = froles.next();
-                    if (frole.getSpec().equals(spec) && frole.getRole().equals(role)) {
-                        froles.remove();
-                        found = true;
-                    }
-                }
-            }
-        }
+    public synchronized boolean removeUserFromFlexRoles(String id, String role, String spec, boolean update_message) {
+        ensureRosterLoaded();
+        Set<String> affectedRoles = getRolesOfUser(id);
+        boolean found = roster.removeFlex(id, role, spec);
 
-        try {
-            RaidBot.getInstance().getDatabase().update(
-                    "DELETE FROM `raidUsersFlexRoles` WHERE `userId` = ? and `raidId` = ? and `role` = ? and `spec` = ?",
-                    new String[] { id, getMessageId(), role, spec });
-        } catch (SQLException e) {
-            log.error("Error removing user from flex roles on event {}.", getMessageId(), e);
-        }
+        RaidBot.getInstance().getEventRepository().removeFlexUser(messageId, id, role, spec);
 
+        renderer.invalidateRoles(affectedRoles);
         if (update_message)
             updateMessage();
         return found;
@@ -1265,20 +1034,14 @@ public class Raid {
      * @param id The id of the user
      * @return The number of flex roles that a user has
      */
-    public int getUserNumFlexRoles(String id) {
-        for (Map.Entry<RaidUser, List<FlexRole>> entry : usersToFlexRoles.entrySet()) {
-            RaidUser user = entry.getKey();
-            if (user != null && user.getId() != null) {
-                if (user.id.equalsIgnoreCase(id)) {
-                    return entry.getValue().size();
-                }
-            }
-        }
-        return 0;
+    public synchronized int getUserNumFlexRoles(String id) {
+        ensureRosterLoaded();
+        return roster.getFlexCountOfUser(id);
     }
 
     /**
-     * Posts the latest event message to the archive channel
+     * Posts the latest event message to the archive channel.
+     * Nothing is posted for fractal events or if the roster cannot be loaded, the event can be ended anyway.
      *
      * @return whether the message was posted successfully
      */
@@ -1287,15 +1050,22 @@ public class Raid {
             // fractal events are not archived
             return false;
         }
+        try {
+            ensureRosterLoaded();
+        } catch (IllegalStateException e) {
+            // the event can still be ended, its roster stays in the database and is archived there
+            log.error("Could not post event {} to the archive channel.", messageId, e);
+            return false;
+        }
+        // bring the event message up to date before it is archived and deleted
+        RaidMessageUpdater.flush(this);
 
         MessageEmbed message = isDisplayShort ? buildEmbedShort(false) : buildEmbed(false);
 
-        Guild guild = RaidBot.getInstance().getServer(serverId);
-        List<TextChannel> channels = guild.getTextChannelsByName(ServerSettings.getArchiveChannel(serverId), true);
-        if(!channels.isEmpty()) {
-            // We always go with the first channel if there is more than one
+        TextChannel channel = ServerSettings.getTextChannel(serverId, ServerSettings.ChannelType.ARCHIVE);
+        if(channel != null) {
             try {
-                channels.get(0).sendMessageEmbeds(message).queue();
+                channel.sendMessageEmbeds(message).queue();
             } catch (Exception ecxp) {
                 return false;
             }
@@ -1310,32 +1080,52 @@ public class Raid {
         return permittedDiscordRoles;
     }
 
-    public void addPermittedDiscordRoles(String role) {
+    public synchronized void addPermittedDiscordRoles(String role) {
         if (!permittedDiscordRoles.contains(role))
             permittedDiscordRoles.add(role);
+        permittedRoleIds = null;
     }
 
-    public void addPermittedDiscordRoles(List<String> roles) {
+    public synchronized void addPermittedDiscordRoles(List<String> roles) {
         for (int r = 0; r < roles.size(); r++)
         {
             if (!permittedDiscordRoles.contains(roles.get(r)))
                 permittedDiscordRoles.add(roles.get(r));
         }
+        permittedRoleIds = null;
     }
 
-    public void clearPermittedDiscordRoles() {
+    public synchronized void clearPermittedDiscordRoles() {
         permittedDiscordRoles.clear();
+        permittedRoleIds = null;
     }
 
-    public boolean updatePermDiscRolesDB() {
-        String permDiscRoles = RaidManager.formatStringListForDatabase(permittedDiscordRoles);
-        try {
-            RaidBot.getInstance().getDatabase().update("UPDATE `raids` SET `permittedRoles`=? WHERE `raidId`=?", new String[] { permDiscRoles, messageId });
-        } catch (SQLException e) {
-            log.error("Error updating permitted roles for registration on event {}.", messageId, e);
-            return false;
+    /**
+     * Follow the rename of a discord role in the permitted roles
+     * @param oldName The old name of the discord role
+     * @param newName The new name of the discord role
+     * @return true if the role was permitted and has been renamed, false otherwise
+     */
+    public synchronized boolean renamePermittedDiscordRole(String oldName, String newName) {
+        boolean renamed = false;
+        for (int r = 0; r < permittedDiscordRoles.size(); r++)
+        {
+            if (permittedDiscordRoles.get(r).equalsIgnoreCase(oldName)) {
+                permittedDiscordRoles.set(r, newName);
+                renamed = true;
+            }
         }
-        return true;
+        permittedRoleIds = null;
+        return renamed;
+    }
+
+    /**
+     * Updates the permitted discord roles of the raid in the database.
+     * The update runs on the database thread.
+     * @return Completes with true if the update was written, false otherwise
+     */
+    public CompletableFuture<Boolean> updatePermDiscRolesDB() {
+        return updateDetailsDB("permitted roles");
     }
 
     /**
@@ -1344,20 +1134,13 @@ public class Raid {
      * @param member the user as member
      * @return whether user has permission
      */
-    public boolean isUserPermitted(Member member) {
+    public synchronized boolean isUserPermitted(Member member) {
         if (permittedDiscordRoles.isEmpty()) {
             // if there are no restrictions, user has permission
             return true;
         }
-        boolean match = false;
-        // iterate over permitted roles
-        for (String permRole : permittedDiscordRoles) {
-            // iterate over user discord roles
-            if (PermissionsUtil.hasRole(member, permRole)) {
-                match = true;
-                break;
-            }
-        }
-        return match;
+        PermissionsUtil.ResolvedRoles resolved = PermissionsUtil.resolveRoles(member.getGuild(), permittedDiscordRoles, permittedRoleIds);
+        permittedRoleIds = resolved;
+        return PermissionsUtil.hasAnyRole(member, resolved.getIds());
     }
 }
@@ -1,18 +1,24 @@
 package me.cbitler.raidbot.raids;
 
 import me.cbitler.raidbot.RaidBot;
-import me.cbitler.raidbot.database.Database;
-import me.cbitler.raidbot.database.QueryResult;
 import me.cbitler.raidbot.server_settings.ServerSettings;
+import me.cbitler.raidbot.utility.EnvVariables;
 import me.cbitler.raidbot.utility.Reactions;
 import me.cbitler.raidbot.utility.RoleTemplates;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.entities.emoji.RichCustomEmoji;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
 
-import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -25,8 +31,13 @@ import org.apache.logging.log4j.Logger;
 public class RaidManager {
     private static final Logger log = LogManager.getLogger(RaidManager.class);
 
-    static List<Raid> raids = new ArrayList<>();
-    static HashMap<String, String> autoCreatorToEventMap = new HashMap<>();
+    /* *
+     * registry of all active events keyed by the snowflake of their message,
+     * plus an index of the message ids per guild so lookups never scan all events
+     */
+    static ConcurrentHashMap<String, Raid> raids = new ConcurrentHashMap<>();
+    static ConcurrentHashMap<String, Set<String>> raidsByGuild = new ConcurrentHashMap<>();
+    static ConcurrentHashMap<String, String> autoCreatorToEventMap = new ConcurrentHashMap<>();
 
     /**
      * Create a raid. This turns a PendingRaid object into a Raid object and inserts it into the list of raids.
@@ -37,19 +48,20 @@ public class RaidManager {
     public static void createRaid(PendingRaid raid, String taskExecId) {
         MessageEmbed message = raid.isDisplayShort() ? buildEmbedShort(raid) : buildEmbed(raid);
 
-        Guild guild = RaidBot.getInstance().getServer(raid.getServerId());
-        List<TextChannel> channels = guild.getTextChannelsByName(raid.getAnnouncementChannel(), true);
-        if(!channels.isEmpty()) {
-            // We always go with the first channel if there is more than one
+        TextChannel channel = ServerSettings.getTextChannel(raid.getServerId(), raid.getAnnouncementChannel());
+        if(channel != null) {
             try {
-                Message sentMessage = channels.get(0).sendMessageEmbeds(message).complete();
-                boolean inserted = insertToDatabase(raid, sentMessage.getId(), sentMessage.getGuild().getId(), sentMessage.getChannel().getId());
-                if (inserted) {
-                    Raid newRaid = new Raid(sentMessage.getId(), sentMessage.getGuild().getId(), sentMessage.getChannel().getId(), raid.getLeaderId(),
-                            raid.getName(), raid.getDescription(), raid.getDate(), raid.getTime(), raid.isOpenWorld(), raid.isDisplayShort(),
-                            raid.isFractalEvent(), raid.getPermittedDiscordRoles());
-                    newRaid.roles.addAll(raid.rolesWithNumbers);
-                    raids.add(newRaid);
+                Message sentMessage = channel.sendMessageEmbeds(message).complete();
+                Raid newRaid = new Raid(sentMessage.getId(), sentMessage.getGuild().getId(), sentMessage.getChannel().getId(), raid.getLeaderId(),
+                        raid.getName(), raid.getDescription(), raid.getDate(), raid.getTime(), raid.isOpenWorld(), raid.isDisplayShort(),
+                        raid.isFractalEvent(), raid.getPermittedDiscordRoles());
+                // the roles get ids in the order they were defined
+                for (int i = 0; i < raid.rolesWithNumbers.size(); i++) {
+                    raid.rolesWithNumbers.get(i).setId(i);
+                }
+                newRaid.roles.addAll(raid.rolesWithNumbers);
+                if (RaidBot.getInstance().getEventRepository().insertEvent(newRaid)) {
+                    registerRaid(newRaid);
                     newRaid.updateMessage();
 
                     if (!taskExecId.isEmpty())
@@ -114,9 +126,9 @@ public class RaidManager {
         fractalEvent.setFractalEvent(true);
         fractalEvent.addTemplateRoles(RoleTemplates.getFractalTemplates()[teamCompId]);
 
-        String fractalChannel = ServerSettings.getFractalChannel(serverId);
-        if (ServerSettings.checkChannel(fractalEvent.getServerId(), fractalChannel)) {
-            fractalEvent.setAnnouncementChannel(fractalChannel);
+        TextChannel fractalChannel = ServerSettings.getTextChannel(serverId, ServerSettings.ChannelType.FRACTALS);
+        if (fractalChannel != null) {
+            fractalEvent.setAnnouncementChannel(fractalChannel.getId());
         } else {
             author.openPrivateChannel().queue(privateChannel -> privateChannel.sendMessage("The specified fractal channel is invalid. It needs to be set with !setFractalChannel [channelname without hash] by someone with MANAGE SERVER permissions.").queue());
             return;
@@ -125,182 +137,210 @@ public class RaidManager {
     }
 
     /**
-     * Insert a raid into the database
-     * @param raid The raid to insert
-     * @param messageId The embedded message / 'raidId'
-     * @param serverId The serverId related to this raid
-     * @param channelId The channelId for the announcement of this raid
-     * @return True if inserted, false otherwise
+     * Load raids
+     * This reads the raids with their roles and rosters from the event repository. Data of raids that do not exist anymore
+     * is deleted after the verification.
+     * In lazy mode (LAZY_ROSTER_LOADING=true) only the raids and roles are loaded here, the roster of a raid is read
+     * the first time it is needed (see {@link #loadRoster(Raid)}).
+     * Finally, it starts the asynchronous verification of the event messages, which registers the raids
+     * and updates their embedded messages as soon as they are verified
      */
-    private static boolean insertToDatabase(PendingRaid raid, String messageId, String serverId, String channelId) {
-        RaidBot bot = RaidBot.getInstance();
-        Database db = bot.getDatabase();
-
-        String roles = formatRolesForDatabase(raid.getRolesWithNumbers());
-        String permDiscRoles = formatStringListForDatabase(raid.getPermittedDiscordRoles());
-        try {
-            db.update("INSERT INTO `raids` (`raidId`, `serverId`, `channelId`, `isDisplayShort`, `isOpenWorld`, `isFractalEvent`, "
-                    + "`leader`, `name`, `description`, `date`, `time`, `roles`, `permittedRoles`) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)",
-                    new String[] {
-                    messageId,
-                    serverId,
-                    channelId,
-                    Boolean.toString(raid.isDisplayShort()),
-                    Boolean.toString(raid.isOpenWorld()),
-                    Boolean.toString(raid.isFractalEvent()),
-                    raid.getLeaderId(),
-                    raid.getName(),
-                    raid.getDescription(),
-                    raid.getDate(),
-                    raid.getTime(),
-                    roles,
-                    permDiscRoles
-            });
-        } catch (SQLException e) {
-            log.error("Error creating raid in the database.", e);
-            return false;
+    public static void loadRaids() {
+        boolean lazy = isLazyRosterLoading();
+        long start = System.currentTimeMillis();
+        EventRepository.LoadedEvents loaded = RaidBot.getInstance().getEventRepository().loadEvents(!lazy);
+        if (loaded == null) {
+            log.error("Could not load events. Exiting.");
+            System.exit(1);
         }
 
-        return true;
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Loaded {} events ({} rows{}) in {} ms ({} rows/s).", loaded.events.size(), loaded.rows,
+                lazy ? ", rosters on demand" : "", elapsed, loaded.rows * 1000 / elapsed);
+
+        verifyRaids(loaded.events.values(), new ArrayList<>(loaded.orphans), !lazy);
     }
 
     /**
-     * Load raids
-     * This first queries all of the raids and loads the raid data and adds the raids to the raid list
-     * Then, it queries the raid users and inserts them into their relevant raids, updating the embedded messages
-     * Finally, it queries the raid users' flex roles and inserts those to the raids
+     * Load the roster (main and flex roles) of a single raid.
+     * This is used to hydrate raids that were loaded without their roster in lazy mode.
+     * @param raid The raid whose roster should be loaded
+     * @return true if the roster was loaded, false otherwise
      */
-    public static void loadRaids() {
-        RaidBot bot = RaidBot.getInstance();
-        Database db = bot.getDatabase();
-
-        try {
-            QueryResult results = db.query("SELECT * FROM `raids`", new String[] {});
-            while (results.getResults().next()) {
-                String name = results.getResults().getString("name");
-                String description = results.getResults().getString("description");
-                if(description == null) {
-                    description = "N/A";
-                }
-                String date = results.getResults().getString("date");
-                String time = results.getResults().getString("time");
-                String rolesText = results.getResults().getString("roles");
-                String messageId = results.getResults().getString("raidId");
-                String serverId = results.getResults().getString("serverId");
-                String channelId = results.getResults().getString("channelId");
-
-                String leaderName = null;
-                try {
-                    leaderName = results.getResults().getString("leader");
-                } catch (Exception e) { }
-
-                boolean isOpenWorld = false;
-                try {
-                    isOpenWorld = results.getResults().getString("isOpenWorld").equals("true");
-                } catch (Exception e) { }
-
-                boolean isDisplayShort = false;
-                try {
-                    isDisplayShort = results.getResults().getString("isDisplayShort").equals("true");
-                } catch (Exception e) { }
-
-                boolean isFractalEvent = false;
-                try {
-                    isFractalEvent = results.getResults().getString("isFractalEvent").equals("true");
-                } catch (Exception e) { }
+    static boolean loadRoster(Raid raid) {
+        return RaidBot.getInstance().getEventRepository().loadRoster(raid);
+    }
 
-                List<String> permDiscRoles = new ArrayList<String>();
-                try {
-                    String permRolesText = results.getResults().getString("permittedRoles");
-                    if (permRolesText != null && permRolesText.isEmpty() == false)
-                        permDiscRoles = new ArrayList<String>(Arrays.asList(permRolesText.split(",")));
-                } catch (Exception e) { }
-
-                Raid raid = new Raid(messageId, serverId, channelId, leaderName, name, description, date, time, isOpenWorld, isDisplayShort, isFractalEvent, permDiscRoles);
-                String[] roleSplit = rolesText.split(";");
-                for(String roleAndAmount : roleSplit) {
-                    String[] parts = roleAndAmount.split(":");
-                    try {
-                        int amnt = Integer.parseInt(parts[0]);
-                        String role = parts[1];
-                        raid.roles.add(new RaidRole(amnt, role));
-                    } catch (Exception excp) {
-                        log.info("Invalid format for role with amount: {}", roleAndAmount);
-                    }
-                }
+    /**
+     * Whether rosters should only be loaded when an event is used for the first time
+     * @return true if lazy roster loading is enabled
+     */
+    private static boolean isLazyRosterLoading() {
+        return "true".equalsIgnoreCase(EnvVariables.getValue("LAZY_ROSTER_LOADING"));
+    }
 
-                boolean messageUnknown = false;
-                try {
-                    RaidBot.getInstance().getServer(serverId).getTextChannelById(channelId).retrieveMessageById(messageId).complete();
-                } catch (Exception excp) {
-                    messageUnknown = true;
+    /**
+     * Check asynchronously whether the messages of the loaded raids still exist.
+     * The checks run on a background thread with a bounded number of requests in flight, so the bot serves reactions
+     * while they are running and JDA's rate limit handling never sees a flood of requests.
+     * Every raid is registered as soon as its message was found. Raids whose message, channel or server is gone
+     * are moved to the archive in a single transaction once all checks are done, incomplete raids are deleted.
+     * @param loaded The loaded raids, not registered yet
+     * @param orphans The ids of raids that are already known to be invalid (no roles, or roles and rosters without a raid)
+     * @param updateMessages Whether the embedded messages should be updated after verification
+     */
+    private static void verifyRaids(Collection<Raid> loaded, List<String> orphans, boolean updateMessages) {
+        int maxInFlight = Math.max(1, EnvVariables.getIntValue("EVENT_VERIFICATION_CONCURRENCY", 5));
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        CountDownLatch remaining = new CountDownLatch(loaded.size());
+        List<String> goneIds = Collections.synchronizedList(new ArrayList<>());
+
+        Thread verifier = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            for (Raid raid : loaded) {
+                Guild guild = RaidBot.getInstance().getServer(raid.getServerId());
+                TextChannel channel = guild == null ? null : guild.getTextChannelById(raid.getChannelId());
+                if (channel == null) {
+                    goneIds.add(raid.getMessageId());
+                    remaining.countDown();
+                    continue;
                 }
 
-                if (raid.roles.size() > 0 && !messageUnknown)
-                    raids.add(raid);
-                else {
-                    // delete this raid from the database
+                inFlight.acquireUninterruptibly();
+                Consumer<Throwable> onError = error -> {
                     try {
-                        db.update("DELETE FROM `raids` WHERE `raidId` = ?", new String[]{ messageId });
-                        db.update("DELETE FROM `raidUsers` WHERE `raidId` = ?", new String[]{ messageId });
-                        db.update("DELETE FROM `raidUsersFlexRoles` WHERE `raidId` = ?", new String[]{messageId});
-                    } catch (Exception excp) {
-                        log.warn("Could not delete raid without roles from database.");
+                        if (isGone(error)) {
+                            // discord told us the message is gone
+                            goneIds.add(raid.getMessageId());
+                        } else {
+                            // network problems, missing permissions, rate limits etc. are no reason to throw away the event
+                            log.warn("Could not verify message for event {}, keeping it.", raid.getMessageId(), error);
+                            registerRaid(raid);
+                        }
+                    } catch (RuntimeException e) {
+                        log.error("Could not restore event {}.", raid.getMessageId(), e);
+                    } finally {
+                        inFlight.release();
+                        remaining.countDown();
                     }
+                };
+                try {
+                    channel.retrieveMessageById(raid.getMessageId()).queue(message -> {
+                        try {
+                            registerRaid(raid);
+                            raid.rememberRenderedEmbed(message);
+                            if (updateMessages)
+                                raid.updateMessage();
+                        } catch (RuntimeException e) {
+                            log.error("Could not restore event {}.", raid.getMessageId(), e);
+                        } finally {
+                            inFlight.release();
+                            remaining.countDown();
+                        }
+                    }, onError);
+                } catch (RuntimeException e) {
+                    // e.g. InsufficientPermissionException, thrown before the request is queued
+                    onError.accept(e);
                 }
             }
-            results.getResults().close();
-            results.getStmt().close();
-
-            QueryResult userResults = db.query("SELECT * FROM `raidUsers`", new String[] {});
-
-            while(userResults.getResults().next()) {
-                String id = userResults.getResults().getString("userId");
-                String name = userResults.getResults().getString("username");
-                String spec = userResults.getResults().getString("spec");
-                String role = userResults.getResults().getString("role");
-                String raidId = userResults.getResults().getString("raidId");
 
-                Raid raid = RaidManager.getRaid(raidId);
-                if(raid != null) {
-                    raid.addUser(id, name, spec, role, false, false);
-                }
+            try {
+                remaining.await();
+            } catch (InterruptedException e) {
+                log.error("Event verification was interrupted.", e);
+                return;
             }
+            deleteOrphanedRaids(orphans);
+            archiveGoneRaids(goneIds);
+            log.info("Verified {} events in {} ms, archived {} events without message, removed {} incomplete events.",
+                    loaded.size(), System.currentTimeMillis() - start, goneIds.size(), orphans.size());
+        }, "event-verification");
+        verifier.setDaemon(true);
+        verifier.start();
+    }
 
-            QueryResult userFlexRolesResults = db.query("SELECT * FROM `raidUsersFlexroles`", new String[] {});
-
-            while(userFlexRolesResults.getResults().next()) {
-                String id = userFlexRolesResults.getResults().getString("userId");
-                String name = userFlexRolesResults.getResults().getString("username");
-                String spec = userFlexRolesResults.getResults().getString("spec");
-                String role = userFlexRolesResults.getResults().getString("role");
-                String raidId = userFlexRolesResults.getResults().getString("raidId");
+    /**
+     * Whether a failed message request means that the event message does not exist anymore
+     * @param error The error of the request
+     * @return true if discord reports the message or its channel as unknown
+     */
+    private static boolean isGone(Throwable error) {
+        if (!(error instanceof ErrorResponseException))
+            return false;
+        ErrorResponse response = ((ErrorResponseException) error).getErrorResponse();
+        return response == ErrorResponse.UNKNOWN_MESSAGE || response == ErrorResponse.UNKNOWN_CHANNEL;
+    }
 
-                Raid raid = RaidManager.getRaid(raidId);
-                if(raid != null) {
-                    raid.addUserFlexRole(id, name, spec, role, false, false);
-                }
-            }
+    /**
+     * Delete incomplete raids that could not be loaded, see {@link EventRepository#deleteEvents(List)}
+     * @param messageIds The raid IDs
+     */
+    private static void deleteOrphanedRaids(List<String> messageIds) {
+        if (!messageIds.isEmpty())
+            RaidBot.getInstance().getEventRepository().deleteEvents(messageIds);
+    }
 
-            for(Raid raid : raids) {
-                raid.updateMessage();
-            }
-        } catch (SQLException e) {
-            log.error("Error while loading events. Exiting.", e);
-            System.exit(1);
-        }
+    /**
+     * Move raids whose message does not exist anymore to the archive, like ended raids.
+     * If this fails, they stay in the database and are checked again on the next start.
+     * @param messageIds The raid IDs
+     */
+    private static void archiveGoneRaids(List<String> messageIds) {
+        if (messageIds.isEmpty())
+            return;
+        RaidBot.getInstance().getEventRepository().archiveEvents(messageIds).exceptionally(e -> {
+            log.error("Could not archive {} events without message.", messageIds.size(), e);
+            return null;
+        });
     }
 
     /**
-     * Delete the raid from the database and maps, and delete the message if it is still there
+     * End a raid: remove it from the maps, move it to the archive and delete the message if it is still there
      * @param messageId The raid ID
      * @param delete_message whether the original message should be deleted
      * @return true if deleted, false if not deleted
      */
     public static boolean deleteRaid(String messageId, boolean delete_message) {
-        Raid r = getRaid(messageId);
-        if (r != null) {
-            if (delete_message) {
+        Set<String> messagesToDelete = delete_message ? Collections.singleton(messageId) : Collections.emptySet();
+        return !deleteRaids(Collections.singletonList(messageId), messagesToDelete).isEmpty();
+    }
+
+    /**
+     * End several raids: remove them from the maps, move them to the archive in a single batch
+     * and delete their messages if requested.
+     * The messages are only deleted once the raids are archived. If archiving fails, the raids are registered again
+     * and none of them counts as deleted.
+     * @param messageIds The raid IDs
+     * @param messagesToDelete The raid IDs whose original message should be deleted
+     * @return The IDs of the raids that were deleted
+     */
+    public static List<String> deleteRaids(List<String> messageIds, Set<String> messagesToDelete) {
+        List<Raid> ended = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (String messageId : messageIds) {
+            Raid r = getRaid(messageId);
+            // only the thread that actually unregisters the event cleans up after it
+            if (r == null || !unregisterRaid(r))
+                continue;
+            RaidMessageUpdater.forget(messageId);
+            ended.add(r);
+            deleted.add(messageId);
+        }
+        if (deleted.isEmpty())
+            return deleted;
+
+        try {
+            RaidBot.getInstance().getEventRepository().archiveEvents(deleted).join();
+        } catch (CompletionException | CancellationException e) {
+            log.error("Could not archive {} ended events, keeping them.", deleted.size(), e);
+            for (Raid r : ended)
+                registerRaid(r);
+            return new ArrayList<>();
+        }
+
+        for (Raid r : ended) {
+            String messageId = r.getMessageId();
+            if (messagesToDelete.contains(messageId)) {
                 try {
                     RaidBot.getInstance().getServer(r.getServerId())
                     .getTextChannelById(r.getChannelId()).retrieveMessageById(messageId)
@@ -311,32 +351,8 @@ public class RaidManager {
                     log.info("Couldn't find raid message for raid id {}.", messageId);
                 }
             }
-
-            Iterator<Raid> raidIterator = raids.iterator();
-            while (raidIterator.hasNext()) {
-                Raid raid = raidIterator.next();
-                if (raid.getMessageId().equalsIgnoreCase(messageId)) {
-                    raidIterator.remove();
-                }
-            }
-
-            try {
-                RaidBot.getInstance().getDatabase().update("DELETE FROM `raids` WHERE `raidId` = ?", new String[]{
-                        messageId
-                });
-                RaidBot.getInstance().getDatabase().update("DELETE FROM `raidUsers` WHERE `raidId` = ?", new String[]{
-                        messageId
-                });
-                RaidBot.getInstance().getDatabase().update("DELETE FROM `raidUsersFlexRoles` WHERE `raidId` = ?",
-                        new String[]{messageId});
-            } catch (Exception e) {
-                log.error("Could not remove event with id {} from database.", messageId, e);
-            }
-
-            return true;
         }
-
-        return false;
+        return deleted;
     }
 
     /**
@@ -346,72 +362,102 @@ public class RaidManager {
      */
     public static Raid getRaid(String messageId)
     {
-        for(Raid raid : raids) {
-            if (raid.messageId.equalsIgnoreCase(messageId)) {
-                return raid;
-            }
-        }
-        return null;
+        if (messageId == null)
+            return null;
+        return raids.get(messageId);
     }
 
     /**
      * Get all raids
-     * @return The list of all raid objects.
+     * @return A snapshot of all raid objects, safe to iterate while other threads create or delete events.
      */
     public static List<Raid> getAllRaids()
     {
-        return raids;
+        return new ArrayList<>(raids.values());
     }
 
     /**
-     * Get event id for the specified creator if it created an event before
-     * @param creatorId unique identifier of a creator task
-     * @return The event id of the last event created by this creator (can be null)
+     * Get all raids on a specific server
+     * @param serverId The server ID
+     * @return A snapshot of the raid objects on that server (empty list if there are none)
      */
-    public static String getEventForAutoCreator(String creatorId)
+    public static List<Raid> getRaidsForGuild(String serverId)
     {
-        return autoCreatorToEventMap.get(creatorId);
+        return collectRaids(raidsByGuild.get(serverId));
     }
 
     /**
-     * Formats the roles associated with a raid in a form that can be inserted into a database row.
-     * This combines them as [number]:[name];[number]:[name];...
-     * @param rolesWithNumbers The roles and their amounts
-     * @return The formatted string
+     * Follow the rename of a discord role in the permitted roles of all events on a server
+     * @param serverId The server ID
+     * @param oldName The old name of the discord role
+     * @param newName The new name of the discord role
      */
-    public static String formatRolesForDatabase(List<RaidRole> rolesWithNumbers) {
-        String data = "";
-
-        for (int i = 0; i < rolesWithNumbers.size(); i++) {
-            RaidRole role = rolesWithNumbers.get(i);
-            String roleName = role.name;
-            if(role.isFlexOnly()) roleName = "!"+roleName;
-            if(i == rolesWithNumbers.size() - 1) {
-                data += (role.amount + ":" + roleName);
-            } else {
-                data += (role.amount + ":" + roleName + ";");
-            }
+    public static void renamePermittedRole(String serverId, String oldName, String newName)
+    {
+        for (Raid raid : getRaidsForGuild(serverId)) {
+            if (raid.renamePermittedDiscordRole(oldName, newName))
+                raid.updatePermDiscRolesDB();
         }
-
-        return data;
     }
 
     /**
-     * Formats the given String list in a form that can be inserted into a database row.
-     * @param stringList The list of Strings
-     * @return The formatted string
+     * Resolve a set of message ids from the server index to the raid objects
+     * @param messageIds The message ids, may be null
+     * @return The list of raid objects that are still registered
      */
-    public static String formatStringListForDatabase(List<String> stringList) {
-        String data = "";
-
-        for (int i = 0; i < stringList.size(); i++) {
-            data += stringList.get(i);
-            if (i != stringList.size() - 1) {
-                // add a comma if it is not the last element
-                data += ",";
-            }
+    private static List<Raid> collectRaids(Set<String> messageIds)
+    {
+        List<Raid> result = new ArrayList<>();
+        if (messageIds == null)
+            return result;
+        for (String messageId : messageIds) {
+            Raid raid = raids.get(messageId);
+            if (raid != null)
+                result.add(raid);
         }
-        return data;
+        return result;
+    }
+
+    /**
+     * Add a raid to the registry and the server index.
+     * The id is added inside compute, like the removal in unregisterRaid, so a concurrent removal of the
+     * last id of a server cannot drop the set the id was just added to.
+     * @param raid The raid to register
+     */
+    private static void registerRaid(Raid raid)
+    {
+        raids.put(raid.getMessageId(), raid);
+        raidsByGuild.compute(raid.getServerId(), (k, ids) -> {
+            if (ids == null)
+                ids = ConcurrentHashMap.newKeySet();
+            ids.add(raid.getMessageId());
+            return ids;
+        });
+    }
+
+    /**
+     * Remove a raid from the registry and the server index
+     * @param raid The raid to unregister
+     * @return true if the raid was registered, false if another thread removed it already
+     */
+    private static boolean unregisterRaid(Raid raid)
+    {
+        boolean removed = raids.remove(raid.getMessageId(), raid);
+        raidsByGuild.computeIfPresent(raid.getServerId(), (k, ids) -> {
+            ids.remove(raid.getMessageId());
+            return ids.isEmpty() ? null : ids;
+        });
+        return removed;
+    }
+
+    /**
+     * Get event id for the specified creator if it created an event before
+     * @param creatorId unique identifier of a creator task
+     * @return The event id of the last event created by this creator (can be null)
+     */
+    public static String getEventForAutoCreator(String creatorId)
+    {
+        return autoCreatorToEventMap.get(creatorId);
     }
 
     /**
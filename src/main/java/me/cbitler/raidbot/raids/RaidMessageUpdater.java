@@ -0,0 +1,102 @@
+package me.cbitler.raidbot.raids;
+
+import me.cbitler.raidbot.utility.EnvVariables;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Coalesces updates of the embedded event messages.
+ * Changes mark an event as dirty, and every dirty event is rendered at most once per update window
+ * (EVENT_UPDATE_WINDOW_MS, default 2000). The flush always renders the latest state of the event,
+ * so a burst of sign-ups results in a single edit instead of one edit per sign-up.
+ */
+public class RaidMessageUpdater {
+    private static final Logger log = LogManager.getLogger(RaidMessageUpdater.class);
+
+    static final long updateWindowMs = Math.max(0, EnvVariables.getIntValue("EVENT_UPDATE_WINDOW_MS", 2000));
+
+    static ConcurrentHashMap<String, Raid> dirty = new ConcurrentHashMap<>();
+    static ConcurrentHashMap<String, Long> lastFlush = new ConcurrentHashMap<>();
+
+    static ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "event-message-updates");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Mark an event as changed. Its message is updated immediately if it was not updated during the last window,
+     * otherwise once the window has passed.
+     * @param raid The event
+     */
+    public static void schedule(Raid raid) {
+        if (dirty.putIfAbsent(raid.getMessageId(), raid) != null) {
+            // an update is already pending and will render the latest state
+            return;
+        }
+        long last = lastFlush.getOrDefault(raid.getMessageId(), 0L);
+        long delay = Math.max(0, last + updateWindowMs - System.currentTimeMillis());
+        executor.schedule(() -> flushPending(raid, false), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Update the message of an event right away if an update is pending, waiting for the edit to complete
+     * @param raid The event
+     */
+    public static void flush(Raid raid) {
+        flushPending(raid, true);
+    }
+
+    /**
+     * Update the messages of all events with pending updates right away, waiting for the edits to complete.
+     * This is used on shutdown.
+     */
+    public static void flushAll() {
+        for (Raid raid : dirty.values()) {
+            flushPending(raid, true);
+        }
+    }
+
+    /**
+     * Forget an event that was deleted, dropping its pending update and its last update time
+     * @param messageId The event's message id
+     */
+    static void forget(String messageId) {
+        dirty.remove(messageId);
+        lastFlush.remove(messageId);
+    }
+
+    /**
+     * Render the event if it is still marked as dirty
+     * @param raid The event
+     * @param blocking Whether to wait for the edit to complete
+     */
+    private static void flushPending(Raid raid, boolean blocking) {
+        if (!dirty.remove(raid.getMessageId(), raid)) {
+            // someone else flushed it already
+            return;
+        }
+        if (RaidManager.getRaid(raid.getMessageId()) != raid) {
+            // the event was deleted in the meantime
+            lastFlush.remove(raid.getMessageId());
+            return;
+        }
+        lastFlush.put(raid.getMessageId(), System.currentTimeMillis());
+        if (RaidManager.getRaid(raid.getMessageId()) != raid) {
+            // deleted while we were flushing, forget() may have run before the put
+            lastFlush.remove(raid.getMessageId());
+            return;
+        }
+        try {
+            raid.renderMessage(blocking);
+        } catch (Exception e) {
+            log.error("Could not update message of event {}.", raid.getMessageId(), e);
+        }
+    }
+}
@@ -9,6 +9,11 @@ public class RaidRole {
     String name;
     boolean flexOnly;
 
+    /* *
+     * stable id of the role within its event (also used in the database), -1 if the role is not part of an event yet
+     */
+    int id = -1;
+
     /**
      * Create a new RaidRole object
      * @param amount The max amount of the role
@@ -27,6 +32,22 @@ public class RaidRole {
         this.name = name;
     }
 
+    /**
+     * Get the id of the role within its event
+     * @return The id, -1 if the role is not part of an event yet
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Set the id of the role within its event
+     * @param id The id
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * Get the maximum number of people in this role
      * @return The maximum number of people in this role
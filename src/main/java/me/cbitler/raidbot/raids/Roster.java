@@ -0,0 +1,216 @@
+package me.cbitler.raidbot.raids;
+
+import java.util.*;
+
+/**
+ * The sign-ups of a raid, indexed by user ID and by role.
+ * Main and flex sign-ups are both stored as RaidUser entries (id, name, spec, role). Every entry is referenced
+ * from the index of its user and the index of its role, so membership checks and per-role counts
+ * do not have to look at the sign-ups of other users.
+ * Role names are matched case-insensitively.
+ */
+class Roster {
+    private final LinkedHashMap<String, List<RaidUser>> mainByUser = new LinkedHashMap<>();
+    private final LinkedHashMap<String, List<RaidUser>> flexByUser = new LinkedHashMap<>();
+    private final HashMap<String, List<RaidUser>> mainByRole = new HashMap<>();
+    private final HashMap<String, List<RaidUser>> flexByRole = new HashMap<>();
+
+    /**
+     * Add a main role sign-up
+     * @param user The sign-up
+     */
+    void addMain(RaidUser user) {
+        mainByUser.computeIfAbsent(user.getId(), k -> new ArrayList<>()).add(user);
+        mainByRole.computeIfAbsent(key(user.getRole()), k -> new ArrayList<>()).add(user);
+    }
+
+    /**
+     * Add a flex role sign-up
+     * @param user The sign-up
+     */
+    void addFlex(RaidUser user) {
+        flexByUser.computeIfAbsent(user.getId(), k -> new ArrayList<>()).add(user);
+        flexByRole.computeIfAbsent(key(user.getRole()), k -> new ArrayList<>()).add(user);
+    }
+
+    /**
+     * Remove all main role sign-ups of a user
+     * @param id The user's id
+     * @return true if the user had a main role
+     */
+    boolean removeMain(String id) {
+        return removeAll(id, mainByUser, mainByRole);
+    }
+
+    /**
+     * Remove all flex role sign-ups of a user
+     * @param id The user's id
+     * @return true if the user had a flex role
+     */
+    boolean removeFlex(String id) {
+        return removeAll(id, flexByUser, flexByRole);
+    }
+
+    /**
+     * Remove a specific flex role sign-up of a user
+     * @param id The user's id
+     * @param role The role
+     * @param spec The specialization
+     * @return true if the user was signed up with this role and specialization
+     */
+    boolean removeFlex(String id, String role, String spec) {
+        List<RaidUser> userEntries = flexByUser.get(id);
+        if (userEntries == null)
+            return false;
+        boolean found = false;
+        Iterator<RaidUser> entries = userEntries.iterator();
+        while (entries.hasNext()) {
+            RaidUser entry = entries.next();
+            if (entry.getSpec().equals(spec) && entry.getRole().equals(role)) {
+                entries.remove();
+                removeFromIndex(flexByRole, entry);
+                found = true;
+            }
+        }
+        if (userEntries.isEmpty())
+            flexByUser.remove(id);
+        return found;
+    }
+
+    /**
+     * Rename a role in all sign-ups
+     * @param oldName The current role name
+     * @param newName The new role name
+     */
+    void renameRole(String oldName, String newName) {
+        renameInIndex(mainByRole, oldName, newName);
+        renameInIndex(flexByRole, oldName, newName);
+    }
+
+    boolean isInMain(String id) {
+        return mainByUser.containsKey(id);
+    }
+
+    int getMainCount(String role) {
+        List<RaidUser> entries = mainByRole.get(key(role));
+        return entries == null ? 0 : entries.size();
+    }
+
+    int getFlexCount(String role) {
+        List<RaidUser> entries = flexByRole.get(key(role));
+        return entries == null ? 0 : entries.size();
+    }
+
+    int getFlexCountOfUser(String id) {
+        List<RaidUser> entries = flexByUser.get(id);
+        return entries == null ? 0 : entries.size();
+    }
+
+    List<RaidUser> getMainOfUser(String id) {
+        return copy(mainByUser.get(id));
+    }
+
+    List<RaidUser> getFlexOfUser(String id) {
+        return copy(flexByUser.get(id));
+    }
+
+    List<RaidUser> getMainInRole(String role) {
+        return copy(mainByRole.get(key(role)));
+    }
+
+    List<RaidUser> getFlexInRole(String role) {
+        return copy(flexByRole.get(key(role)));
+    }
+
+    /**
+     * Get the first flex sign-up of every user with at least one flex role
+     * @return One entry per user
+     */
+    List<RaidUser> getFlexUsers() {
+        List<RaidUser> users = new ArrayList<>(flexByUser.size());
+        for (List<RaidUser> entries : flexByUser.values()) {
+            users.add(entries.get(0));
+        }
+        return users;
+    }
+
+    /**
+     * Get the ids of all users with a main role
+     * @return The user ids
+     */
+    Set<String> getMainUserIds() {
+        return new LinkedHashSet<>(mainByUser.keySet());
+    }
+
+    /**
+     * Get the names of all roles a user is signed up for, as main or flex role
+     * @param id The user's id
+     * @return The role names
+     */
+    Set<String> getRolesOfUser(String id) {
+        Set<String> roles = new HashSet<>();
+        for (RaidUser entry : copy(mainByUser.get(id)))
+            roles.add(entry.getRole());
+        for (RaidUser entry : copy(flexByUser.get(id)))
+            roles.add(entry.getRole());
+        return roles;
+    }
+
+    /**
+     * Find a user by name, looking at main roles first
+     * @param name The name of the user
+     * @return The user's id or null if there is no such user
+     */
+    String findIdByName(String name) {
+        for (List<RaidUser> entries : mainByUser.values()) {
+            if (entries.get(0).getName().equalsIgnoreCase(name))
+                return entries.get(0).getId();
+        }
+        for (List<RaidUser> entries : flexByUser.values()) {
+            if (entries.get(0).getName().equalsIgnoreCase(name))
+                return entries.get(0).getId();
+        }
+        return null;
+    }
+
+    private static boolean removeAll(String id, Map<String, List<RaidUser>> byUser, Map<String, List<RaidUser>> byRole) {
+        List<RaidUser> entries = byUser.remove(id);
+        if (entries == null)
+            return false;
+        for (RaidUser entry : entries)
+            removeFromIndex(byRole, entry);
+        return true;
+    }
+
+    private static void removeFromIndex(Map<String, List<RaidUser>> byRole, RaidUser entry) {
+        List<RaidUser> roleEntries = byRole.get(key(entry.getRole()));
+        if (roleEntries == null)
+            return;
+        // remove this exact entry, equal duplicates may exist
+        for (int i = 0; i < roleEntries.size(); i++) {
+            if (roleEntries.get(i) == entry) {
+                roleEntries.remove(i);
+                break;
+            }
+        }
+        if (roleEntries.isEmpty())
+            byRole.remove(key(entry.getRole()));
+    }
+
+    private static void renameInIndex(Map<String, List<RaidUser>> byRole, String oldName, String newName) {
+        List<RaidUser> entries = byRole.remove(key(oldName));
+        if (entries == null)
+            return;
+        for (RaidUser entry : entries)
+            entry.setRole(newName);
+        byRole.put(key(newName), entries);
+    }
+
+    private static List<RaidUser> copy(List<RaidUser> entries) {
+        return entries == null ? new ArrayList<>() : new ArrayList<>(entries);
+    }
+
+    private static String key(String role) {
+        return role.toLowerCase(Locale.ROOT);
+    }
+}
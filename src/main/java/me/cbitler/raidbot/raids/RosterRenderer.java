@@ -0,0 +1,308 @@
+package me.cbitler.raidbot.raids;
+
+import me.cbitler.raidbot.utility.Reactions;
+import net.dv8tion.jda.api.entities.emoji.RichCustomEmoji;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Renders the roster texts of a raid's embedded message.
+ * The text of every role is cached as a section and only rendered again after the membership of that role changed,
+ * so a sign-up in a large event does not rebuild the sections of all other roles.
+ */
+class RosterRenderer {
+    /* *
+     * cache key used for sections that list all users regardless of their role (open world events)
+     */
+    private static final String ALL_ROLES = "*";
+
+    private static final String MAIN = "main:";
+    private static final String MAIN_SHORT = "mainShort:";
+    private static final String FLEX = "flex:";
+    private static final String FLEX_SHORT = "flexShort:";
+
+    private final Raid raid;
+
+    /* *
+     * the version of a role is increased every time its membership changes,
+     * the generation is increased when the roles themselves change (name, amount, flex only, added or deleted)
+     */
+    private final ConcurrentHashMap<String, Long> roleVersions = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentHashMap<String, Section> sections = new ConcurrentHashMap<>();
+
+    /**
+     * A rendered section together with the versions it was rendered from
+     */
+    private static final class Section {
+        final long generation;
+        final long version;
+        final String text;
+
+        Section(long generation, long version, String text) {
+            this.generation = generation;
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Create a renderer for a raid
+     * @param raid The raid
+     */
+    RosterRenderer(Raid raid) {
+        this.raid = raid;
+    }
+
+    /**
+     * Mark the sections of some roles as outdated. Call this after the roster was changed.
+     * @param roles The names of the roles whose membership changed
+     */
+    void invalidateRoles(Collection<String> roles) {
+        for (String role : roles) {
+            roleVersions.merge(key(role), 1L, Long::sum);
+        }
+        roleVersions.merge(ALL_ROLES, 1L, Long::sum);
+    }
+
+    /**
+     * Mark all sections as outdated. Call this after the roles of the raid were changed.
+     */
+    void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Build the role text, which shows the roles users are playing in the raids
+     *
+     * @return The role text
+     */
+    String rolesText() {
+        StringBuilder text = new StringBuilder(128 * raid.roles.size());
+        for (RaidRole role : raid.roles) {
+            if (role.isFlexOnly()) continue;
+            text.append(section(MAIN, role.getName(), () -> renderMain(role)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Build the short role text, which shows the roles users are playing in the raids
+     *
+     * @return The short role text
+     */
+    String rolesTextShort() {
+        StringBuilder text = new StringBuilder(128 * raid.roles.size());
+        for (RaidRole role : raid.roles) {
+            if (role.isFlexOnly()) continue;
+            text.append(section(MAIN_SHORT, role.getName(), () -> renderMainShort(role)));
+        }
+        text.append("\n");
+        return text.toString();
+    }
+
+    /**
+     * Build the flex roles text, which includes a list of flex roles users are
+     * playing and their specs. There is one entry per role so that the text can be split into several fields.
+     *
+     * @return The flex role text
+     */
+    List<String> flexRolesText() {
+        List<String> textList = new ArrayList<String>();
+        if (raid.isOpenWorld) {
+            String text = section(FLEX, ALL_ROLES, this::renderFlexOpenWorld);
+            if (text.isEmpty() == false) {
+                textList.add(text);
+            }
+        } else {
+            for (RaidRole role : raid.roles) {
+                String text = section(FLEX, role.getName(), () -> renderFlex(role));
+                if (text.isEmpty() == false) {
+                    textList.add(text);
+                }
+            }
+        }
+        return textList;
+    }
+
+    /**
+     * Build the short flex roles text, which includes a list of flex roles users are
+     * playing, leaving out users that have a main role
+     *
+     * @return The short flex role text
+     */
+    String flexRolesTextShort() {
+        if (raid.isOpenWorld) {
+            return section(FLEX_SHORT, ALL_ROLES, this::renderFlexShortOpenWorld);
+        }
+        StringBuilder text = new StringBuilder(64 * raid.roles.size());
+        for (RaidRole role : raid.roles) {
+            text.append(section(FLEX_SHORT, role.getName(), () -> renderFlexShort(role)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get a section from the cache, rendering it if it is missing or outdated
+     * @param type The type of the section
+     * @param role The role the section belongs to
+     * @param render Renders the section
+     * @return The section text
+     */
+    private String section(String type, String role, Supplier<String> render) {
+        // read the versions before rendering: a change during rendering leaves an outdated entry behind
+        long currentGeneration = generation.get();
+        long currentVersion = roleVersions.getOrDefault(key(role), 0L);
+        String cacheKey = type + key(role);
+        Section cached = sections.get(cacheKey);
+        if (cached != null && cached.generation == currentGeneration && cached.version == currentVersion) {
+            return cached.text;
+        }
+        String text = render.get();
+        sections.put(cacheKey, new Section(currentGeneration, currentVersion, text));
+        return text;
+    }
+
+    private String renderMain(RaidRole role) {
+        List<RaidUser> raidUsersInRole = raid.getUsersInRole(role.getName());
+        StringBuilder text = new StringBuilder(32 + 48 * raidUsersInRole.size());
+        text.append("**").append(role.getName());
+        if (role.getAmount() > 1) {
+            text.append(" ( ").append(raidUsersInRole.size()).append(" / ").append(role.getAmount()).append(" )");
+        }
+        text.append(":**\n");
+        for (RaidUser user : raidUsersInRole) {
+            String username = displayName(user);
+            if (raid.isOpenWorld) {
+                text.append("- ").append(username).append("\n");
+            } else {
+                RichCustomEmoji userEmote = Reactions.getEmoteByName(user.getSpec());
+                if (userEmote == null)
+                    text.append("   - ").append(username).append(" (").append(user.getSpec()).append(")\n");
+                else
+                    appendEmote(text.append("   "), userEmote).append(" ").append(username).append("\n");
+            }
+        }
+        text.append("\n");
+        return text.toString();
+    }
+
+    private String renderMainShort(RaidRole role) {
+        List<RaidUser> raidUsersInRole = raid.getUsersInRole(role.getName());
+        StringBuilder text = new StringBuilder(32 + 48 * Math.max(role.getAmount(), raidUsersInRole.size()));
+        if (raid.isOpenWorld) {
+            text.append("**").append(role.getName());
+            if (role.getAmount() > 1) {
+                text.append(" ( ").append(raidUsersInRole.size()).append(" / ").append(role.getAmount()).append(")");
+            }
+            text.append(":**\n");
+            for (RaidUser user : raidUsersInRole) {
+                text.append("- ").append(displayName(user)).append("\n");
+            }
+            text.append("\n");
+        } else {
+            for (int s = 0; s < role.getAmount(); s++) {
+                text.append("[ **").append(role.getName()).append("** ] ");
+                if (s < raidUsersInRole.size()) {
+                    RaidUser user = raidUsersInRole.get(s);
+                    RichCustomEmoji userEmote = Reactions.getEmoteByName(user.getSpec());
+                    if (userEmote != null)
+                        appendEmote(text, userEmote).append(" ");
+                    text.append(displayName(user));
+
+                    // add flex roles for that user
+                    List<FlexRole> userFlexRoles = raid.getRaidUsersFlexRolesById(user.getId());
+                    if (userFlexRoles.isEmpty() == false) {
+                        Set<String> uniqueFlexRoles = new HashSet<String>();
+                        for (FlexRole frole : userFlexRoles) {
+                            uniqueFlexRoles.add(frole.getRole());
+                        }
+                        text.append("   (or ").append(uniqueFlexRoles.toString()).append(")");
+                    }
+                }
+                text.append("\n");
+            }
+        }
+        return text.toString();
+    }
+
+    private String renderFlex(RaidRole role) {
+        List<RaidUser> flexUsers = flexUsersInRole(role.getName(), false);
+        StringBuilder text = new StringBuilder(32 + 48 * flexUsers.size());
+        for (RaidUser user : flexUsers) {
+            RichCustomEmoji userEmote = Reactions.getEmoteByName(user.getSpec());
+            if (userEmote == null)
+                text.append("- ").append(displayName(user)).append(" (").append(user.getSpec()).append(")\n");
+            else
+                appendEmote(text, userEmote).append(" ").append(displayName(user)).append("\n");
+        }
+        if (text.length() > 0 || role.isFlexOnly()) {
+            text.insert(0, role.getName() + ":\n").append("\n");
+        }
+        return text.toString();
+    }
+
+    private String renderFlexShort(RaidRole role) {
+        List<RaidUser> flexUsers = flexUsersInRole(role.getName(), true);
+        if (flexUsers.isEmpty())
+            return "";
+        StringBuilder text = new StringBuilder(32 + 24 * flexUsers.size());
+        text.append("[ **").append(role.getName()).append("**: ");
+        for (int u = 0; u < flexUsers.size(); u++) {
+            if (u != 0)
+                text.append(", ");
+            text.append(displayName(flexUsers.get(u)));
+        }
+        text.append(" ] ");
+        return text.toString();
+    }
+
+    private String renderFlexOpenWorld() {
+        StringBuilder text = new StringBuilder();
+        for (RaidUser user : raid.roster.getFlexUsers()) {
+            text.append("- ").append(displayName(user)).append("\n");
+        }
+        return text.toString();
+    }
+
+    private String renderFlexShortOpenWorld() {
+        StringBuilder text = new StringBuilder();
+        for (RaidUser user : raid.roster.getFlexUsers()) {
+            if (text.length() > 0)
+                text.append(", ");
+            text.append(displayName(user));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Collect the users that signed up for a role as flex role, one entry per signed up specialization
+     * @param role The role name
+     * @param excludeMain Whether to leave out users that have a main role
+     * @return The users with their flex specialization
+     */
+    private List<RaidUser> flexUsersInRole(String role, boolean excludeMain) {
+        List<RaidUser> users = raid.roster.getFlexInRole(role);
+        if (excludeMain)
+            users.removeIf(user -> raid.roster.isInMain(user.getId()));
+        return users;
+    }
+
+    private String displayName(RaidUser user) {
+        String username = raid.userIDsToNicknames.get(user.getId());
+        if (username == null)
+            username = user.getName();
+        return username;
+    }
+
+    private static StringBuilder appendEmote(StringBuilder text, RichCustomEmoji emote) {
+        return text.append("<:").append(emote.getName()).append(":").append(emote.getId()).append(">");
+    }
+
+    private static String key(String role) {
+        return role.toLowerCase(Locale.ROOT);
+    }
+}
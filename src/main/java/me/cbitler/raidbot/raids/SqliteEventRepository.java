@@ -0,0 +1,486 @@
+package me.cbitler.raidbot.raids;
+
+import me.cbitler.raidbot.database.Database;
+import me.cbitler.raidbot.database.QueryResult;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stores the events in the SQLite database (tables raids, eventRoles, raidUsers and raidUsersFlexRoles).
+ * Ended events are moved to the archive tables (archivedEvents, archivedEventRoles and archivedRaidUsers).
+ * Changes of the details and roles of an event are written on the database thread,
+ * roster changes are queued and written in batches, see {@link Database#updateLater(String, String[])}.
+ */
+public class SqliteEventRepository implements EventRepository {
+    private static final Logger log = LogManager.getLogger(SqliteEventRepository.class);
+
+    private static final String ROSTER_COLUMNS = "`userId`, `username`, `spec`, `role`, `raidId`";
+    private static final String ROSTER_QUERY = "SELECT 0 AS `isFlex`, " + ROSTER_COLUMNS + " FROM `raidUsers` "
+            + "UNION ALL SELECT 1 AS `isFlex`, " + ROSTER_COLUMNS + " FROM `raidUsersFlexRoles`";
+    private static final String ROSTER_QUERY_FOR_RAID = "SELECT 0 AS `isFlex`, " + ROSTER_COLUMNS + " FROM `raidUsers` WHERE `raidId` = ? "
+            + "UNION ALL SELECT 1 AS `isFlex`, " + ROSTER_COLUMNS + " FROM `raidUsersFlexRoles` WHERE `raidId` = ?";
+    private static final DateTimeFormatter ARCHIVE_MONTH = DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC);
+    private static final String INSERT_ROLE = "INSERT INTO `eventRoles` (`raidId`, `roleId`, `name`, `amount`, `flexOnly`, `position`) "
+            + "VALUES (?,?,?,?,?,?)";
+
+    private final Database db;
+
+    /**
+     * Create a repository that stores the events in a database
+     * @param db The database, already connected
+     */
+    public SqliteEventRepository(Database db) {
+        this.db = db;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean insertEvent(Raid raid) {
+        List<String> queries = new ArrayList<>();
+        List<String[]> data = new ArrayList<>();
+        queries.add("INSERT INTO `raids` (`raidId`, `serverId`, `channelId`, `isDisplayShort`, `isOpenWorld`, `isFractalEvent`, "
+                + "`leader`, `name`, `description`, `date`, `time`, `permittedRoles`) VALUES (?,?,?,?,?,?,?,?,?,?,?,?)");
+        data.add(new String[] {
+                    raid.getMessageId(),
+                    raid.getServerId(),
+                    raid.getChannelId(),
+                    formatFlag(raid.isDisplayShort()),
+                    formatFlag(raid.isOpenWorld()),
+                    formatFlag(raid.isFractalEvent()),
+                    raid.getRaidLeaderId(),
+                    raid.getName(),
+                    raid.getDescription(),
+                    raid.getDate(),
+                    raid.getTime(),
+                    formatStringList(raid.getPermittedDiscordRoles())
+            });
+        for (RaidRole role : raid.getRoles()) {
+            queries.add(INSERT_ROLE);
+            data.add(formatRole(raid.getMessageId(), role));
+        }
+        try {
+            db.updateTransaction(queries, data);
+        } catch (SQLException e) {
+            log.error("Error creating raid in the database.", e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Load all events.
+     * This streams the raids, their roles and the rosters (main and flex roles in one query), all ordered by raid id,
+     * and attaches every role and roster row to the raid that is currently being built in a single pass.
+     * Role and roster rows of raids that do not exist anymore are reported as orphans.
+     * @param withRosters Whether the rosters are loaded as well
+     * @return The loaded events, null if they could not be loaded
+     */
+    @Override
+    public LoadedEvents loadEvents(boolean withRosters) {
+        LoadedEvents result = new LoadedEvents();
+        try {
+            QueryResult raidResults = db.query("SELECT * FROM `raids` ORDER BY `raidId`", new String[] {});
+            QueryResult roleResults = db.query("SELECT * FROM `eventRoles` ORDER BY `raidId`, `position`", new String[] {});
+            QueryResult rosterResults = withRosters ? db.query(ROSTER_QUERY + " ORDER BY `raidId`, `isFlex`", new String[] {}) : null;
+            ResultSet raidRows = raidResults.getResults();
+            ResultSet roleRows = roleResults.getResults();
+            ResultSet rosterRows = withRosters ? rosterResults.getResults() : null;
+
+            boolean hasRole = roleRows.next();
+            boolean hasRoster = withRosters && rosterRows.next();
+            while (raidRows.next()) {
+                result.rows++;
+                Raid raid = readRaid(raidRows);
+                String messageId = raid.getMessageId();
+                if (!withRosters)
+                    raid.rosterLoaded = false;
+
+                // role rows sorted before this raid belong to raids that do not exist anymore
+                while (hasRole && compareRaidIds(roleRows.getString("raidId"), messageId) < 0) {
+                    addOrphan(result.orphans, roleRows.getString("raidId"));
+                    result.rows++;
+                    hasRole = roleRows.next();
+                }
+                while (hasRole && messageId.equals(roleRows.getString("raidId"))) {
+                    raid.roles.add(readRole(roleRows));
+                    result.rows++;
+                    hasRole = roleRows.next();
+                }
+
+                // roster rows sorted before this raid belong to raids that do not exist anymore
+                while (hasRoster && compareRaidIds(rosterRows.getString("raidId"), messageId) < 0) {
+                    addOrphan(result.orphans, rosterRows.getString("raidId"));
+                    result.rows++;
+                    hasRoster = rosterRows.next();
+                }
+                while (hasRoster && messageId.equals(rosterRows.getString("raidId"))) {
+                    attachRosterRow(raid, rosterRows);
+                    result.rows++;
+                    hasRoster = rosterRows.next();
+                }
+
+                if (raid.roles.size() > 0)
+                    result.events.put(messageId, raid);
+                else
+                    result.orphans.add(messageId);
+            }
+            while (hasRole) {
+                addOrphan(result.orphans, roleRows.getString("raidId"));
+                result.rows++;
+                hasRole = roleRows.next();
+            }
+            while (hasRoster) {
+                addOrphan(result.orphans, rosterRows.getString("raidId"));
+                result.rows++;
+                hasRoster = rosterRows.next();
+            }
+
+            raidResults.close();
+            roleResults.close();
+            if (withRosters)
+                rosterResults.close();
+        } catch (SQLException e) {
+            log.error("Error while loading events.", e);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean loadRoster(Raid raid) {
+        // read all rows before adding any, so a failed read leaves the roster empty instead of incomplete
+        List<String[]> rows = new ArrayList<>();
+        try (QueryResult rosterResults = db.query(ROSTER_QUERY_FOR_RAID + " ORDER BY `isFlex`",
+                new String[] { raid.getMessageId(), raid.getMessageId() })) {
+            ResultSet row = rosterResults.getResults();
+            while (row.next()) {
+                rows.add(new String[] { row.getString("userId"), row.getString("username"), row.getString("spec"),
+                        row.getString("role"), row.getString("isFlex") });
+            }
+        } catch (SQLException e) {
+            log.error("Could not load roster for event {}.", raid.getMessageId(), e);
+            return false;
+        }
+        for (String[] row : rows) {
+            if ("0".equals(row[4]))
+                raid.addUser(row[0], row[1], row[2], row[3], false, false);
+            else
+                raid.addUserFlexRole(row[0], row[1], row[2], row[3], false, false);
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> updateEvent(Raid raid) {
+        return db.updateAsync("UPDATE `raids` SET `name`=?, `description`=?, `date`=?, `time`=?, `leader`=?, "
+                + "`isDisplayShort`=?, `permittedRoles`=? WHERE `raidId`=?",
+                new String[] {
+                        raid.getName(),
+                        raid.getDescription(),
+                        raid.getDate(),
+                        raid.getTime(),
+                        raid.getRaidLeaderId(),
+                        formatFlag(raid.isDisplayShort()),
+                        formatStringList(raid.getPermittedDiscordRoles()),
+                        raid.getMessageId()
+                });
+    }
+
+    /**
+     * Move ended events to the archive tables (archivedEvents, archivedEventRoles and archivedRaidUsers) and delete them
+     * from the event tables, all in one transaction on the database thread. Pending roster changes are written before.
+     * @param raidIds The events' message ids
+     * @return Completes when the transaction is committed, exceptionally if it was rolled back
+     */
+    @Override
+    public CompletableFuture<Void> archiveEvents(List<String> raidIds) {
+        if (raidIds.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        long now = System.currentTimeMillis();
+        String month = ARCHIVE_MONTH.format(Instant.ofEpochMilli(now));
+        List<String> steps = Arrays.asList(
+                "INSERT OR IGNORE INTO `archivedEvents` (`raidId`, `serverId`, `channelId`, `isDisplayShort`, `isOpenWorld`, "
+                        + "`isFractalEvent`, `leader`, `name`, `description`, `date`, `time`, `permittedRoles`, `archivedAt`, `archiveMonth`) "
+                        + "SELECT `raidId`, `serverId`, `channelId`, `isDisplayShort`, `isOpenWorld`, `isFractalEvent`, `leader`, "
+                        + "`name`, `description`, `date`, `time`, `permittedRoles`, ?, ? FROM `raids` WHERE `raidId` = ?",
+                "INSERT OR IGNORE INTO `archivedEventRoles` (`raidId`, `roleId`, `name`, `amount`, `flexOnly`, `position`) "
+                        + "SELECT `raidId`, `roleId`, `name`, `amount`, `flexOnly`, `position` FROM `eventRoles` WHERE `raidId` = ?",
+                "INSERT OR IGNORE INTO `archivedRaidUsers` (`raidId`, `isFlex`, `userId`, `username`, `spec`, `role`) "
+                        + "SELECT `raidId`, 0, `userId`, `username`, `spec`, `role` FROM `raidUsers` WHERE `raidId` = ?",
+                "INSERT OR IGNORE INTO `archivedRaidUsers` (`raidId`, `isFlex`, `userId`, `username`, `spec`, `role`) "
+                        + "SELECT `raidId`, 1, `userId`, `username`, `spec`, `role` FROM `raidUsersFlexRoles` WHERE `raidId` = ?",
+                "DELETE FROM `raids` WHERE `raidId` = ?",
+                "DELETE FROM `eventRoles` WHERE `raidId` = ?",
+                "DELETE FROM `raidUsers` WHERE `raidId` = ?",
+                "DELETE FROM `raidUsersFlexRoles` WHERE `raidId` = ?");
+        // grouped by statement, so every statement is sent as one batch for all events
+        List<String> queries = new ArrayList<>();
+        List<String[]> data = new ArrayList<>();
+        for (String step : steps) {
+            for (String raidId : raidIds) {
+                queries.add(step);
+                data.add(step.startsWith("INSERT OR IGNORE INTO `archivedEvents`")
+                        ? new String[] { Long.toString(now), month, raidId }
+                        : new String[] { raidId });
+            }
+        }
+        return db.updateTransactionAsync(queries, data);
+    }
+
+    /**
+     * Delete several events in a single transaction
+     * @param raidIds The events' message ids
+     */
+    @Override
+    public void deleteEvents(List<String> raidIds) {
+        if (raidIds.isEmpty())
+            return;
+        List<String[]> data = new ArrayList<>();
+        for (String raidId : raidIds)
+            data.add(new String[]{ raidId });
+        try {
+            db.updateBatch(Arrays.asList(
+                    "DELETE FROM `raids` WHERE `raidId` = ?",
+                    "DELETE FROM `eventRoles` WHERE `raidId` = ?",
+                    "DELETE FROM `raidUsers` WHERE `raidId` = ?",
+                    "DELETE FROM `raidUsersFlexRoles` WHERE `raidId` = ?"), data);
+        } catch (SQLException e) {
+            log.warn("Could not delete {} orphaned events from database.", raidIds.size(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void insertRole(String raidId, RaidRole role) {
+        db.updateAsync(INSERT_ROLE, formatRole(raidId, role))
+                .exceptionally(e -> {
+                    log.error("Error adding role {} to event {}.", role.getName(), raidId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateRole(String raidId, RaidRole role) {
+        db.updateAsync("UPDATE `eventRoles` SET `name`=?, `amount`=?, `flexOnly`=? WHERE `raidId`=? AND `roleId`=?",
+                new String[] { role.getName(), Integer.toString(role.getAmount()), formatFlag(role.isFlexOnly()),
+                        raidId, Integer.toString(role.getId()) })
+                .exceptionally(e -> {
+                    log.error("Error updating role {} of event {}.", role.getName(), raidId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deleteRole(String raidId, RaidRole role) {
+        db.updateAsync("DELETE FROM `eventRoles` WHERE `raidId`=? AND `roleId`=?",
+                new String[] { raidId, Integer.toString(role.getId()) })
+                .exceptionally(e -> {
+                    log.error("Error deleting role {} from event {}.", role.getName(), raidId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void renameRosterRole(String raidId, String oldName, String newName) {
+        // roster changes are written in the background, in order with the sign-ups
+        db.updateLater("UPDATE `raidUsers` SET `role`=? WHERE `role`=? AND `raidId`=?",
+                new String[] { newName, oldName, raidId });
+        db.updateLater("UPDATE `raidUsersFlexRoles` SET `role`=? WHERE `role`=? AND `raidId`=?",
+                new String[] { newName, oldName, raidId });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addMainUser(String raidId, RaidUser user) {
+        db.updateLater("INSERT OR IGNORE INTO `raidUsers` (`userId`, `username`, `spec`, `role`, `raidId`) VALUES (?,?,?,?,?)",
+                new String[] { user.getId(), user.getName(), user.getSpec(), user.getRole(), raidId });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addFlexUser(String raidId, RaidUser user) {
+        db.updateLater("INSERT OR IGNORE INTO `raidUsersFlexRoles` (`userId`, `username`, `spec`, `role`, `raidId`) VALUES (?,?,?,?,?)",
+                new String[] { user.getId(), user.getName(), user.getSpec(), user.getRole(), raidId });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeMainUser(String raidId, String userId) {
+        db.updateLater("DELETE FROM `raidUsers` WHERE `userId` = ? AND `raidId` = ?",
+                new String[] { userId, raidId });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeFlexUser(String raidId, String userId) {
+        db.updateLater("DELETE FROM `raidUsersFlexRoles` WHERE `userId` = ? AND `raidId` = ?",
+                new String[] { userId, raidId });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeFlexUser(String raidId, String userId, String role, String spec) {
+        db.updateLater("DELETE FROM `raidUsersFlexRoles` WHERE `userId` = ? AND `raidId` = ? AND `role` = ? AND `spec` = ?",
+                new String[] { userId, raidId, role, spec });
+    }
+
+    /**
+     * Add the user of the current row of a roster query to a raid, either as main or as flex role
+     * @param raid The raid
+     * @param row The result set, positioned on the row to read
+     * @throws SQLException
+     */
+    private static void attachRosterRow(Raid raid, ResultSet row) throws SQLException {
+        String id = row.getString("userId");
+        String name = row.getString("username");
+        String spec = row.getString("spec");
+        String role = row.getString("role");
+        if (row.getInt("isFlex") == 0)
+            raid.addUser(id, name, spec, role, false, false);
+        else
+            raid.addUserFlexRole(id, name, spec, role, false, false);
+    }
+
+    /**
+     * Create a raid object from the current row of a query on the raids table
+     * @param row The result set, positioned on the row to read
+     * @return The raid object, without roles
+     * @throws SQLException
+     */
+    private static Raid readRaid(ResultSet row) throws SQLException {
+        String name = row.getString("name");
+        String description = row.getString("description");
+        if(description == null) {
+            description = "N/A";
+        }
+        String date = row.getString("date");
+        String time = row.getString("time");
+        String messageId = row.getString("raidId");
+        String serverId = row.getString("serverId");
+        String channelId = row.getString("channelId");
+
+        String leaderName = row.getString("leader");
+        boolean isOpenWorld = row.getBoolean("isOpenWorld");
+        boolean isDisplayShort = row.getBoolean("isDisplayShort");
+        boolean isFractalEvent = row.getBoolean("isFractalEvent");
+
+        List<String> permDiscRoles = new ArrayList<String>();
+        String permRolesText = row.getString("permittedRoles");
+        if (permRolesText != null && permRolesText.isEmpty() == false)
+            permDiscRoles = new ArrayList<String>(Arrays.asList(permRolesText.split(",")));
+
+        return new Raid(messageId, serverId, channelId, leaderName, name, description, date, time, isOpenWorld, isDisplayShort, isFractalEvent, permDiscRoles);
+    }
+
+    /**
+     * Create a role from the current row of a query on the eventRoles table
+     * @param row The result set, positioned on the row to read
+     * @return The role
+     * @throws SQLException
+     */
+    private static RaidRole readRole(ResultSet row) throws SQLException {
+        RaidRole role = new RaidRole(row.getInt("amount"), row.getString("name"));
+        role.setFlexOnly(row.getBoolean("flexOnly"));
+        role.setId(row.getInt("roleId"));
+        return role;
+    }
+
+    /**
+     * Compare two raid ids the same way SQLite orders them (NULL first, then binary string order)
+     * @param first The first raid id, may be null
+     * @param second The second raid id, may be null
+     * @return a negative number, zero, or a positive number if first is less than, equal to, or greater than second
+     */
+    private static int compareRaidIds(String first, String second) {
+        if (first == null)
+            return second == null ? 0 : -1;
+        if (second == null)
+            return 1;
+        return first.compareTo(second);
+    }
+
+    /**
+     * Remember the id of a raid whose rows should be deleted
+     * @param orphans The ids collected so far
+     * @param raidId The raid id, rows without an id cannot be addressed and are skipped
+     */
+    private static void addOrphan(Set<String> orphans, String raidId) {
+        if (raidId != null)
+            orphans.add(raidId);
+    }
+
+    /**
+     * Formats a flag of a raid for the database, flags are stored as integers
+     * @param flag The flag
+     * @return "1" if the flag is set, "0" otherwise
+     */
+    private static String formatFlag(boolean flag) {
+        return flag ? "1" : "0";
+    }
+
+    /**
+     * Formats a role of a raid as parameters for {@link #INSERT_ROLE}.
+     * Roles are ordered by their id, so the id is also used as position.
+     * @param raidId The raid ID
+     * @param role The role, with its id set
+     * @return The parameters
+     */
+    private static String[] formatRole(String raidId, RaidRole role) {
+        return new String[] {
+                raidId,
+                Integer.toString(role.getId()),
+                role.getName(),
+                Integer.toString(role.getAmount()),
+                formatFlag(role.isFlexOnly()),
+                Integer.toString(role.getId())
+        };
+    }
+
+    /**
+     * Formats the given String list in a form that can be inserted into a database row.
+     * @param stringList The list of Strings
+     * @return The formatted string
+     */
+    private static String formatStringList(List<String> stringList) {
+        return String.join(",", stringList);
+    }
+}
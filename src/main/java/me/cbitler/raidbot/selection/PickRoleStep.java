@@ -74,13 +74,21 @@ public class PickRoleStep implements SelectionStep {
     }
 
     /**
-     * adds the user as the specified role
+     * adds the user as the specified role.
+     * The check whether the role is full and the sign-up happen while holding the raid's lock,
+     * so concurrent sign-ups cannot overfill a role.
      * @param userID the user's id
      * @param username the user's name
      * @param roleName name of the role to be added
      * @return true if role was added, false otherwise
      * */
     public boolean pickRole(String userID, String username, String roleName) {
+        synchronized (raid) {
+            return pickRoleLocked(userID, username, roleName);
+        }
+    }
+
+    private boolean pickRoleLocked(String userID, String username, String roleName) {
         boolean success = true;
 
         if(raid.isValidRole(roleName)) {
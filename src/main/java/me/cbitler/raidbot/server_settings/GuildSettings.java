@@ -0,0 +1,220 @@
+package me.cbitler.raidbot.server_settings;
+
+import me.cbitler.raidbot.raids.RaidRole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The settings of one server. A GuildSettings object is never changed, a change creates a new object
+ * that replaces the old one, so readers always see a complete and consistent set of settings without locking.
+ * Settings that a server has not configured are null (or empty for the role groups and templates).
+ * The role groups and templates are kept as unmodifiable lists in name order, so they can be handed out
+ * without copying.
+ */
+public final class GuildSettings {
+
+    /* *
+     * the settings of a server that has not configured anything
+     */
+    public static final GuildSettings DEFAULTS = new GuildSettings(null, null, null, null, null,
+            Collections.emptySortedMap(), Collections.emptySortedMap());
+
+    private final String raidLeaderRole;
+    private final String fractalCreatorRole;
+    private final String fractalChannel;
+    private final String archiveChannel;
+    private final String autoEventsChannel;
+
+    private final SortedMap<String, List<String>> roleGroups;
+    private final List<List<String>> roleGroupRoles;
+
+    private final SortedMap<String, List<RaidRole>> roleTemplates;
+    private final List<String> roleTemplateNames;
+    private final List<List<RaidRole>> roleTemplateRoles;
+
+    /**
+     * Create settings, the maps and their lists have to be unmodifiable
+     */
+    private GuildSettings(String raidLeaderRole, String fractalCreatorRole, String fractalChannel, String archiveChannel,
+                          String autoEventsChannel, SortedMap<String, List<String>> roleGroups,
+                          SortedMap<String, List<RaidRole>> roleTemplates) {
+        this(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                roleGroups, Collections.unmodifiableList(new ArrayList<>(roleGroups.values())),
+                roleTemplates, Collections.unmodifiableList(new ArrayList<>(roleTemplates.keySet())),
+                Collections.unmodifiableList(new ArrayList<>(roleTemplates.values())));
+    }
+
+    private GuildSettings(String raidLeaderRole, String fractalCreatorRole, String fractalChannel, String archiveChannel,
+                          String autoEventsChannel, SortedMap<String, List<String>> roleGroups,
+                          List<List<String>> roleGroupRoles, SortedMap<String, List<RaidRole>> roleTemplates,
+                          List<String> roleTemplateNames, List<List<RaidRole>> roleTemplateRoles) {
+        this.raidLeaderRole = raidLeaderRole;
+        this.fractalCreatorRole = fractalCreatorRole;
+        this.fractalChannel = fractalChannel;
+        this.archiveChannel = archiveChannel;
+        this.autoEventsChannel = autoEventsChannel;
+        this.roleGroups = roleGroups;
+        this.roleGroupRoles = roleGroupRoles;
+        this.roleTemplates = roleTemplates;
+        this.roleTemplateNames = roleTemplateNames;
+        this.roleTemplateRoles = roleTemplateRoles;
+    }
+
+    public String getRaidLeaderRole() {
+        return raidLeaderRole;
+    }
+
+    public String getFractalCreatorRole() {
+        return fractalCreatorRole;
+    }
+
+    public String getFractalChannel() {
+        return fractalChannel;
+    }
+
+    public String getArchiveChannel() {
+        return archiveChannel;
+    }
+
+    public String getAutoEventsChannel() {
+        return autoEventsChannel;
+    }
+
+    /**
+     * Get the names of the predefined role groups
+     * @return The names, sorted and unmodifiable
+     */
+    public Set<String> getRoleGroupNames() {
+        return roleGroups.keySet();
+    }
+
+    /**
+     * Get the discord roles of the predefined role groups
+     * @return The discord roles of each group in the order of the group names, unmodifiable
+     */
+    public List<List<String>> getRoleGroupRoles() {
+        return roleGroupRoles;
+    }
+
+    /**
+     * Get the names of the role templates
+     * @return The names, sorted and unmodifiable
+     */
+    public List<String> getRoleTemplateNames() {
+        return roleTemplateNames;
+    }
+
+    /**
+     * Get the roles of the role templates
+     * @return The roles of each template in the order of the template names, unmodifiable
+     */
+    public List<List<RaidRole>> getRoleTemplateRoles() {
+        return roleTemplateRoles;
+    }
+
+    public GuildSettings withRaidLeaderRole(String role) {
+        return new GuildSettings(role, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                roleGroups, roleGroupRoles, roleTemplates, roleTemplateNames, roleTemplateRoles);
+    }
+
+    public GuildSettings withFractalCreatorRole(String role) {
+        return new GuildSettings(raidLeaderRole, role, fractalChannel, archiveChannel, autoEventsChannel,
+                roleGroups, roleGroupRoles, roleTemplates, roleTemplateNames, roleTemplateRoles);
+    }
+
+    public GuildSettings withFractalChannel(String channel) {
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, channel, archiveChannel, autoEventsChannel,
+                roleGroups, roleGroupRoles, roleTemplates, roleTemplateNames, roleTemplateRoles);
+    }
+
+    public GuildSettings withArchiveChannel(String channel) {
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, channel, autoEventsChannel,
+                roleGroups, roleGroupRoles, roleTemplates, roleTemplateNames, roleTemplateRoles);
+    }
+
+    public GuildSettings withAutoEventsChannel(String channel) {
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, channel,
+                roleGroups, roleGroupRoles, roleTemplates, roleTemplateNames, roleTemplateRoles);
+    }
+
+    /**
+     * Create a copy with other role groups
+     * @param groups The role groups, copied
+     * @return The new settings
+     */
+    public GuildSettings withRoleGroups(SortedMap<String, List<String>> groups) {
+        SortedMap<String, List<String>> copy = new TreeMap<>();
+        for (SortedMap.Entry<String, List<String>> group : groups.entrySet())
+            copy.put(group.getKey(), Collections.unmodifiableList(new ArrayList<>(group.getValue())));
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                Collections.unmodifiableSortedMap(copy), roleTemplates);
+    }
+
+    /**
+     * Create a copy with a role group added or replaced
+     * @param name The name of the group
+     * @param roles The discord roles of the group, copied
+     * @return The new settings
+     */
+    public GuildSettings withRoleGroup(String name, List<String> roles) {
+        SortedMap<String, List<String>> groups = new TreeMap<>(roleGroups);
+        groups.put(name, Collections.unmodifiableList(new ArrayList<>(roles)));
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                Collections.unmodifiableSortedMap(groups), roleTemplates);
+    }
+
+    /**
+     * Create a copy without a role group
+     * @param name The name of the group
+     * @return The new settings
+     */
+    public GuildSettings withoutRoleGroup(String name) {
+        SortedMap<String, List<String>> groups = new TreeMap<>(roleGroups);
+        groups.remove(name);
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                Collections.unmodifiableSortedMap(groups), roleTemplates);
+    }
+
+    /**
+     * Create a copy with other role templates
+     * @param templates The role templates, copied
+     * @return The new settings
+     */
+    public GuildSettings withRoleTemplates(SortedMap<String, List<RaidRole>> templates) {
+        SortedMap<String, List<RaidRole>> copy = new TreeMap<>();
+        for (SortedMap.Entry<String, List<RaidRole>> template : templates.entrySet())
+            copy.put(template.getKey(), Collections.unmodifiableList(new ArrayList<>(template.getValue())));
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                roleGroups, Collections.unmodifiableSortedMap(copy));
+    }
+
+    /**
+     * Create a copy with a role template added or replaced
+     * @param name The name of the template
+     * @param roles The roles of the template, copied
+     * @return The new settings
+     */
+    public GuildSettings withRoleTemplate(String name, List<RaidRole> roles) {
+        SortedMap<String, List<RaidRole>> templates = new TreeMap<>(roleTemplates);
+        templates.put(name, Collections.unmodifiableList(new ArrayList<>(roles)));
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                roleGroups, Collections.unmodifiableSortedMap(templates));
+    }
+
+    /**
+     * Create a copy without a role template
+     * @param name The name of the template
+     * @return The new settings
+     */
+    public GuildSettings withoutRoleTemplate(String name) {
+        SortedMap<String, List<RaidRole>> templates = new TreeMap<>(roleTemplates);
+        templates.remove(name);
+        return new GuildSettings(raidLeaderRole, fractalCreatorRole, fractalChannel, archiveChannel, autoEventsChannel,
+                roleGroups, Collections.unmodifiableSortedMap(templates));
+    }
+}
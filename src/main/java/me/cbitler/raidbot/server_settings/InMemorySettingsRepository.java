@@ -0,0 +1,130 @@
+package me.cbitler.raidbot.server_settings;
+
+import me.cbitler.raidbot.raids.RaidRole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the server settings in memory only, nothing survives a restart.
+ * This is meant for load tests and benchmarks without disk access.
+ */
+public class InMemorySettingsRepository implements SettingsRepository {
+    private final Map<String, Map<String, String>> settings = new ConcurrentHashMap<>();
+    private final Map<String, SortedMap<String, List<String>>> roleGroups = new ConcurrentHashMap<>();
+    private final Map<String, SortedMap<String, List<RaidRole>>> roleTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Map<String, String>> loadSettings() {
+        Map<String, Map<String, String>> copy = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> serverSettings : settings.entrySet())
+            copy.put(serverSettings.getKey(), new HashMap<>(serverSettings.getValue()));
+        return copy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSetting(String serverId, String key, String value) {
+        Map<String, String> serverSettings = settings.computeIfAbsent(serverId, k -> new ConcurrentHashMap<>());
+        if (value == null)
+            serverSettings.remove(key);
+        else
+            serverSettings.put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, SortedMap<String, List<String>>> loadRoleGroups() {
+        Map<String, SortedMap<String, List<String>>> copy = new HashMap<>();
+        for (String serverId : roleGroups.keySet()) {
+            roleGroups.computeIfPresent(serverId, (id, groups) -> {
+                copy.put(id, new TreeMap<>(groups));
+                return groups;
+            });
+        }
+        return copy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putRoleGroup(String serverId, String name, List<String> roles) {
+        roleGroups.compute(serverId, (id, groups) -> {
+            SortedMap<String, List<String>> changed = groups == null ? new TreeMap<>() : groups;
+            changed.put(name, new ArrayList<>(roles));
+            return changed;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeRoleGroup(String serverId, String name) {
+        roleGroups.computeIfPresent(serverId, (id, groups) -> {
+            groups.remove(name);
+            return groups.isEmpty() ? null : groups;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, SortedMap<String, List<RaidRole>>> loadRoleTemplates() {
+        Map<String, SortedMap<String, List<RaidRole>>> copy = new HashMap<>();
+        for (String serverId : roleTemplates.keySet()) {
+            roleTemplates.computeIfPresent(serverId, (id, templates) -> {
+                SortedMap<String, List<RaidRole>> serverTemplates = new TreeMap<>();
+                for (Map.Entry<String, List<RaidRole>> template : templates.entrySet())
+                    serverTemplates.put(template.getKey(), copy(template.getValue()));
+                copy.put(id, serverTemplates);
+                return templates;
+            });
+        }
+        return copy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putRoleTemplate(String serverId, String name, List<RaidRole> roles) {
+        roleTemplates.compute(serverId, (id, templates) -> {
+            SortedMap<String, List<RaidRole>> changed = templates == null ? new TreeMap<>() : templates;
+            changed.put(name, copy(roles));
+            return changed;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeRoleTemplate(String serverId, String name) {
+        roleTemplates.computeIfPresent(serverId, (id, templates) -> {
+            templates.remove(name);
+            return templates.isEmpty() ? null : templates;
+        });
+    }
+
+    private static List<RaidRole> copy(List<RaidRole> roles) {
+        List<RaidRole> copy = new ArrayList<>();
+        for (RaidRole role : roles)
+            copy.add(new RaidRole(role.getAmount(), role.getName()));
+        return copy;
+    }
+}
@@ -1,15 +1,15 @@
 package me.cbitler.raidbot.server_settings;
 
 import me.cbitler.raidbot.RaidBot;
-import me.cbitler.raidbot.database.Database;
-import me.cbitler.raidbot.database.QueryResult;
 import me.cbitler.raidbot.raids.RaidRole;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 
-import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,42 +24,105 @@ public class ServerSettings {
 
     public enum ChannelType { ARCHIVE, FRACTALS, AUTOEVENTS };
 
-    static HashMap<String, String> raidLeaderRoleCache = new HashMap<>();
-    static HashMap<String, String> fractalCreatorRoleCache = new HashMap<>();
-
-    static HashMap<String, String> fractalChannelCache = new HashMap<>();
-    static HashMap<String, String> archiveChannelCache = new HashMap<>();
-    static HashMap<String, String> autoEventsChannelCache = new HashMap<>();
+    /* *
+     * the settings of all servers that have configured something, loaded on startup by loadSettings.
+     * Reads never touch the database, servers without an entry use the defaults.
+     */
+    static final ConcurrentHashMap<String, GuildSettings> settings = new ConcurrentHashMap<>();
 
-    static HashMap<String, SortedMap<String, List<String>>> permittedDiscordRoles = new HashMap<>();
-    static HashMap<String, SortedMap<String, List<RaidRole>>> roleTemplates = new HashMap<>();
+    /* *
+     * separates the roles of a template when a template is entered
+     */
     static String roleTemplatesDelimiter = "#";
 
 
     /**
-     * Get the raid leader role for a specific server.
-     * This works by caching the role once it's retrieved once, and returning the default if a server hasn't set one.
+     * Load the settings of all servers from the settings repository, exits if they cannot be read
+     */
+    public static void loadSettings() {
+        SettingsRepository repository = RaidBot.getInstance().getSettingsRepository();
+        Map<String, Map<String, String>> loaded = repository.loadSettings();
+        Map<String, SortedMap<String, List<String>>> roleGroups = repository.loadRoleGroups();
+        Map<String, SortedMap<String, List<RaidRole>>> roleTemplates = repository.loadRoleTemplates();
+        if (loaded == null || roleGroups == null || roleTemplates == null) {
+            log.error("Could not load server settings. Exiting.");
+            System.exit(1);
+        }
+        settings.clear();
+        for (Map.Entry<String, Map<String, String>> entry : loaded.entrySet()) {
+            Map<String, String> values = entry.getValue();
+            GuildSettings serverSettings = GuildSettings.DEFAULTS
+                    .withRaidLeaderRole(values.get("raid_leader_role"))
+                    .withFractalCreatorRole(values.get("fractal_creator_role"))
+                    .withFractalChannel(values.get("fractal_channel"))
+                    .withArchiveChannel(values.get("archive_channel"))
+                    .withAutoEventsChannel(values.get("auto_events_channel"));
+            settings.put(entry.getKey(), serverSettings);
+        }
+        for (Map.Entry<String, SortedMap<String, List<String>>> entry : roleGroups.entrySet())
+            settings.put(entry.getKey(), getSettings(entry.getKey()).withRoleGroups(entry.getValue()));
+        for (Map.Entry<String, SortedMap<String, List<RaidRole>>> entry : roleTemplates.entrySet())
+            settings.put(entry.getKey(), getSettings(entry.getKey()).withRoleTemplates(entry.getValue()));
+        log.info("Loaded settings of {} servers.", settings.size());
+
+        for (String serverId : new ArrayList<>(settings.keySet()))
+            migrateChannelNames(serverId);
+    }
+
+    /**
+     * Replace the channel names that older versions stored with the IDs of the channels.
+     * Names without a matching channel on the server are kept, they stay invalid like before.
+     * @param serverId The server ID
+     */
+    private static void migrateChannelNames(String serverId) {
+        Guild guild = RaidBot.getInstance().getServer(serverId);
+        if (guild == null)
+            return;
+        for (ChannelType type : ChannelType.values()) {
+            String channel = getChannel(serverId, type);
+            if (channel == null || isChannelId(channel))
+                continue;
+            TextChannel textChannel = findChannel(serverId, channel);
+            if (textChannel != null) {
+                storeChannel(serverId, type, textChannel.getId());
+                log.info("Migrated {} channel '{}' of server {} to channel ID {}.", type, channel, serverId, textChannel.getId());
+            }
+        }
+    }
+
+    /**
+     * Get the settings of a server
+     * @param serverId The server ID
+     * @return The current settings, the defaults if the server has not configured anything
+     */
+    public static GuildSettings getSettings(String serverId) {
+        return settings.getOrDefault(serverId, GuildSettings.DEFAULTS);
+    }
+
+    /**
+     * Change the settings of a server and write the change. Changes of the same server are applied
+     * one after the other and their writes are queued in the same order, readers see either the old or the new settings.
+     * @param serverId The server ID
+     * @param change Creates the new settings from the current ones
+     * @param write Writes the change to the settings repository
+     */
+    private static void updateSettings(String serverId, UnaryOperator<GuildSettings> change, Consumer<SettingsRepository> write) {
+        settings.compute(serverId, (id, current) -> {
+            GuildSettings changed = change.apply(current == null ? GuildSettings.DEFAULTS : current);
+            write.accept(RaidBot.getInstance().getSettingsRepository());
+            return changed;
+        });
+    }
+
+
+    /**
+     * Get the raid leader role for a specific server, or the default if a server hasn't set one.
      * @param serverId the ID of the server
      * @return The name of the role that is considered the raid leader for that server
      */
     public static String getRaidLeaderRole(String serverId) {
-        if (raidLeaderRoleCache.get(serverId) != null) {
-            return raidLeaderRoleCache.get(serverId);
-        } else {
-            try {
-                Database db = RaidBot.getInstance().getDatabase();
-                QueryResult results = db.query("SELECT `raid_leader_role` FROM `serverSettings` WHERE `serverId` = ?",
-                        new String[]{serverId});
-                if (results.getResults().next()) {
-                    raidLeaderRoleCache.put(serverId, results.getResults().getString("raid_leader_role"));
-                    return raidLeaderRoleCache.get(serverId);
-                } else {
-                    return "Raid Leader";
-                }
-            } catch (Exception e) {
-                return "Raid Leader";
-            }
-        }
+        String role = getSettings(serverId).getRaidLeaderRole();
+        return role == null ? "Raid Leader" : role;
     }
 
 
@@ -69,48 +132,18 @@ public class ServerSettings {
      * @param role The role name
      */
     public static void setRaidLeaderRole(String serverId, String role) {
-        raidLeaderRoleCache.put(serverId, role);
-        Database db = RaidBot.getInstance().getDatabase();
-        try {
-            db.update("INSERT INTO `serverSettings` (`serverId`,`raid_leader_role`) VALUES (?,?)",
-                    new String[] { serverId, role});
-        } catch (SQLException e) {
-            //TODO: There is probably a much better way of doing this
-            try {
-                db.update("UPDATE `serverSettings` SET `raid_leader_role` = ? WHERE `serverId` = ?",
-                        new String[] { role, serverId });
-            } catch (SQLException e1) {
-                // Not much we can do if there is also an insert error
-                log.error("Error writing server setting to database on setRaidLeaderRole.", e1);
-            }
-        }
+        updateSettings(serverId, current -> current.withRaidLeaderRole(role), repository -> repository.setSetting(serverId, "raid_leader_role", role));
     }
 
 
     /**
-     * Get the fractal creator role for a specific server.
-     * This works by caching the role once it's retrieved once, and returning the default if a server hasn't set one.
+     * Get the fractal creator role for a specific server, or the default if a server hasn't set one.
      * @param serverId the ID of the server
      * @return The name of the role that is considered the fractal creator for that server
      */
     public static String getFractalCreatorRole(String serverId) {
-        if (fractalCreatorRoleCache.get(serverId) != null) {
-            return fractalCreatorRoleCache.get(serverId);
-        } else {
-            try {
-                Database db = RaidBot.getInstance().getDatabase();
-                QueryResult results = db.query("SELECT `fractal_creator_role` FROM `serverSettings` WHERE `serverId` = ?",
-                        new String[]{serverId});
-                if (results.getResults().next()) {
-                    fractalCreatorRoleCache.put(serverId, results.getResults().getString("fractal_creator_role"));
-                    return fractalCreatorRoleCache.get(serverId);
-                } else {
-                    return "Fractal Creator";
-                }
-            } catch (Exception e) {
-                return "Fractal Creator";
-            }
-        }
+        String role = getSettings(serverId).getFractalCreatorRole();
+        return role == null ? "Fractal Creator" : role;
     }
 
     /**
@@ -119,130 +152,72 @@ public class ServerSettings {
      * @param role The role name
      */
     public static void setFractalCreatorRole(String serverId, String role) {
-        fractalCreatorRoleCache.put(serverId, role);
-        Database db = RaidBot.getInstance().getDatabase();
-        try {
-            db.update("INSERT INTO `serverSettings` (`serverId`,`fractal_creator_role`) VALUES (?,?)",
-                    new String[] { serverId, role});
-        } catch (SQLException e) {
-            //TODO: There is probably a much better way of doing this
-            try {
-                db.update("UPDATE `serverSettings` SET `fractal_creator_role` = ? WHERE `serverId` = ?",
-                        new String[] { role, serverId });
-            } catch (SQLException e1) {
-                // Not much we can do if there is also an insert error
-                log.error("Error writing server setting to database on setFractalCreatorRole.", e1);
-            }
-        }
+        updateSettings(serverId, current -> current.withFractalCreatorRole(role), repository -> repository.setSetting(serverId, "fractal_creator_role", role));
     }
 
 
     /**
-     * Set a channel for a server. This also updates it in SQLite
+     * Set a channel for a server. This also updates it in SQLite.
+     * The channel is looked up by name once, the setting stores its ID, so it survives a rename of the channel.
      * @param serverId The server ID
      * @param channel The channel name
      * @return 0: valid channel, 1: no channel found, 2: cannot write in channel
      */
     public static int setChannel(String serverId, String channel, ChannelType type) {
         // check if channel exists
-        if (checkChannel(serverId, channel) == false)
+        TextChannel textChannel = findChannel(serverId, channel);
+        if (textChannel == null)
             return 1;
 
         // check if a message can be written into the channel
-        Guild guild = RaidBot.getInstance().getServer(serverId);
-        List<TextChannel> channels = guild.getTextChannelsByName(getChannel(serverId, type), true);
-        if(channels.size() > 0) {
-            // We always go with the first channel if there is more than one
-            if (channels.get(0).canTalk() == false)
-                return 2;
-            // TODO: check if we have "embed links" permission required to post embedded event messages
-        }
+        if (textChannel.canTalk() == false)
+            return 2;
+        // TODO: check if we have "embed links" permission required to post embedded event messages
 
-        String dbField = "";
+        storeChannel(serverId, type, textChannel.getId());
+        return 0;
+    }
+
+    /**
+     * Store the ID of a channel for a server, or remove the channel if the ID is null
+     * @param serverId The server ID
+     * @param type The type of the channel
+     * @param channelId The channel ID
+     */
+    private static void storeChannel(String serverId, ChannelType type, String channelId) {
         if (type == ChannelType.ARCHIVE)
-        {
-            archiveChannelCache.put(serverId, channel);
-            dbField = "archive_channel";
-        }
+            updateSettings(serverId, current -> current.withArchiveChannel(channelId), repository -> repository.setSetting(serverId, "archive_channel", channelId));
         else if (type == ChannelType.FRACTALS)
-        {
-            fractalChannelCache.put(serverId,  channel);
-            dbField = "fractal_channel";
-        }
+            updateSettings(serverId, current -> current.withFractalChannel(channelId), repository -> repository.setSetting(serverId, "fractal_channel", channelId));
         else if (type == ChannelType.AUTOEVENTS)
-        {
-            autoEventsChannelCache.put(serverId,  channel);
-            dbField = "auto_events_channel";
-        }
-
-        Database db = RaidBot.getInstance().getDatabase();
-        try {
-            db.update("INSERT INTO `serverSettings` (`serverId`,`" + dbField + "`) VALUES (?,?)",
-                    new String[] { serverId, channel});
-        } catch (SQLException e) {
-            //TODO: There is probably a much better way of doing this
-            try {
-                db.update("UPDATE `serverSettings` SET `" + dbField + "` = ? WHERE `serverId` = ?",
-                        new String[] { channel, serverId });
-            } catch (SQLException e1) {
-                // Not much we can do if there is also an update error
-                log.error("Error writing server setting to database on setChannel.", e1);
-            }
-        }
-        return 0;
+            updateSettings(serverId, current -> current.withAutoEventsChannel(channelId), repository -> repository.setSetting(serverId, "auto_events_channel", channelId));
     }
 
     /**
-     * Get a channel for a specific server.
-     * This works by caching the channel once it's retrieved once, and returning the default if a server hasn't set one.
+     * Get a channel for a specific server
      * @param serverId the ID of the server
-     * @return The name of the channel that is considered the archive channel for that server
+     * @return The ID of the channel of the given type for that server, or null if the server hasn't set one
      */
     private static String getChannel(String serverId, ChannelType type) {
-        String cached = null;
-        String dbField = "";
+        GuildSettings serverSettings = getSettings(serverId);
         if (type == ChannelType.ARCHIVE)
-        {
-            cached = archiveChannelCache.get(serverId);
-            dbField = "archive_channel";
-        }
+            return serverSettings.getArchiveChannel();
         else if (type == ChannelType.FRACTALS)
-        {
-            cached = fractalChannelCache.get(serverId);
-            dbField = "fractal_channel";
-        }
+            return serverSettings.getFractalChannel();
         else if (type == ChannelType.AUTOEVENTS)
-        {
-            autoEventsChannelCache.get(serverId);
-            dbField = "auto_events_channel";
-        }
+            return serverSettings.getAutoEventsChannel();
+        return null;
+    }
 
-        if (cached != null) {
-            return cached;
-        } else {
-            try {
-                Database db = RaidBot.getInstance().getDatabase();
-                QueryResult results = db.query("SELECT `" + dbField + "` FROM `serverSettings` WHERE `serverId` = ?",
-                        new String[]{serverId});
-                if (results.getResults().next()) {
-                    String result = results.getResults().getString(dbField);
-                    if (result != null) {
-                        if (type == ChannelType.ARCHIVE)
-                            archiveChannelCache.put(serverId, result);
-                        else if (type == ChannelType.ARCHIVE)
-                            fractalChannelCache.put(serverId, result);
-                        else if (type == ChannelType.AUTOEVENTS)
-                            autoEventsChannelCache.get(serverId);
-                        return result;
-                    }
-                    else
-                        return "dummy-channel";
-                } else {
-                    return "dummy-channel";
-                }
-            } catch (Exception e) {
-                return "dummy-channel";
-            }
+    /**
+     * Remove a deleted channel from the settings of a server
+     * @param serverId The server ID
+     * @param channelId The ID of the deleted channel
+     */
+    public static void channelDeleted(String serverId, String channelId) {
+        for (ChannelType type : ChannelType.values()) {
+            if (channelId.equals(getChannel(serverId, type)))
+                storeChannel(serverId, type, null);
         }
     }
 
@@ -257,10 +232,9 @@ public class ServerSettings {
     }
 
     /**
-     * Get the fractal announcement channel for a specific server.
-     * This works by caching the channel once it's retrieved once, and returning the default if a server hasn't set one.
+     * Get the fractal announcement channel for a specific server
      * @param serverId the ID of the server
-     * @return The name of the channel that is considered the fractal announcement channel for that server
+     * @return The ID of the channel that is considered the fractal announcement channel for that server, or null if the server hasn't set one
      */
     public static String getFractalChannel(String serverId) {
         return getChannel(serverId, ChannelType.FRACTALS);
@@ -277,43 +251,59 @@ public class ServerSettings {
     }
 
     /**
-     * Get the archive channel for a specific server.
-     * This works by caching the channel once it's retrieved once, and returning the default if a server hasn't set one.
+     * Get the archive channel for a specific server
      * @param serverId the ID of the server
-     * @return The name of the channel that is considered the archive channel for that server
+     * @return The ID of the channel that is considered the archive channel for that server, or null if the server hasn't set one
      */
     public static String getArchiveChannel(String serverId) {
         return getChannel(serverId, ChannelType.ARCHIVE);
     }
 
     /**
-     * Get the auto events channel for a specific server.
-     * This works by caching the channel once it's retrieved once, and returning the default if a server hasn't set one.
+     * Get the auto events channel for a specific server
      * @param serverId the ID of the server
-     * @return The name of the channel that is considered the auto events channel for that server
+     * @return The ID of the channel that is considered the auto events channel for that server, or null if the server hasn't set one
      */
     public static String getAutoEventsChannel(String serverId) {
         return getChannel(serverId, ChannelType.AUTOEVENTS);
     }
 
 
+    /**
+     * Follow the rename of a discord role in the event manager role, the fractal creator role and the role groups
+     * @param serverId The server ID
+     * @param oldName The old name of the discord role
+     * @param newName The new name of the discord role
+     */
+    public static void renameRole(String serverId, String oldName, String newName) {
+        GuildSettings current = getSettings(serverId);
+        // compare with the effective roles, a server that uses the default role names has to follow their rename too
+        if (oldName.equalsIgnoreCase(getRaidLeaderRole(serverId)))
+            setRaidLeaderRole(serverId, newName);
+        if (oldName.equalsIgnoreCase(getFractalCreatorRole(serverId)))
+            setFractalCreatorRole(serverId, newName);
+
+        Iterator<String> groupNames = current.getRoleGroupNames().iterator();
+        for (List<String> roles : current.getRoleGroupRoles()) {
+            String groupName = groupNames.next();
+            List<String> renamed = new ArrayList<>(roles);
+            renamed.replaceAll(role -> role.equalsIgnoreCase(oldName) ? newName : role);
+            if (!renamed.equals(roles))
+                updateSettings(serverId, serverSettings -> serverSettings.withRoleGroup(groupName, renamed),
+                        repository -> repository.putRoleGroup(serverId, groupName, renamed));
+        }
+    }
+
+
     /** FUNCTIONS FOR ROLE GROUPS */
 
     public static void removeRoleGroup(String serverId, int groupId) {
-        SortedMap<String, List<String>> serverRoleGroups = permittedDiscordRoles.get(serverId);
-        if (serverRoleGroups != null)
-        {
-            Iterator<String> groupNames = serverRoleGroups.keySet().iterator();
-            try {
-                while (groupId >= 0)
-                {
-                    groupNames.next();
-                    groupId--;
-                }
-                groupNames.remove();
-            } catch (Exception e) { }
-            updateRoleGroupsDB(serverId);
-        }
+        List<String> groupNames = new ArrayList<>(getPredefGroupNames(serverId));
+        if (groupId < 0 || groupId >= groupNames.size())
+            return;
+        String groupName = groupNames.get(groupId);
+        updateSettings(serverId, current -> current.withoutRoleGroup(groupName),
+                repository -> repository.removeRoleGroup(serverId, groupName));
     }
 
 
@@ -326,158 +316,42 @@ public class ServerSettings {
         }
 
         // add role group
-        SortedMap<String, List<String>> serverRoleGroups = permittedDiscordRoles.get(serverId);
-        if (serverRoleGroups == null)
-            serverRoleGroups = new TreeMap<>();
-        serverRoleGroups.put(groupName, roles);
-        permittedDiscordRoles.put(serverId, serverRoleGroups);
-        updateRoleGroupsDB(serverId);
+        updateSettings(serverId, current -> current.withRoleGroup(groupName, roles),
+                repository -> repository.putRoleGroup(serverId, groupName, roles));
 
         return true;
     }
 
 
-    private static void updateRoleGroupsDB(String serverId) {
-        SortedMap<String, List<String>> serverRoleGroups = permittedDiscordRoles.get(serverId);
-        Database db = RaidBot.getInstance().getDatabase();
-        if (serverRoleGroups == null)
-        {
-            try {
-                db.update("UPDATE `serverSettings` SET `predef_role_groups` = NULL WHERE `serverId` = ?",
-                        new String[]{ serverId });
-            } catch (SQLException e_remove) { }
-        }
-        else
-        {
-            String dbString = convertRoleGroupsToString(serverRoleGroups);
-            try {
-                db.update("INSERT INTO `serverSettings` (`serverId`,`predef_role_groups`) VALUES (?,?)",
-                    new String[] { serverId, dbString});
-            } catch (SQLException e) {
-                //TODO: There is probably a much better way of doing this
-                try {
-                    db.update("UPDATE `serverSettings` SET `predef_role_groups` = ? WHERE `serverId` = ?",
-                            new String[] { dbString, serverId });
-                } catch (SQLException e1) {
-                    // Not much we can do if there is also an update error
-                    log.error("Error writing server setting to database on updateRoleGroupsDB.", e1);
-                }
-            }
-        }
-    }
-
-    private static String convertRoleGroupsToString(SortedMap<String, List<String>> roleGroups) {
-        String result = "";
-        if (roleGroups == null)
-            return result;
-        Iterator<String> groupNamesIt = roleGroups.keySet().iterator();
-        Iterator<List<String>> roleNamesIt = roleGroups.values().iterator();
-        for (int g = 0; g < roleGroups.size(); g++)
-        {
-            result += groupNamesIt.next() + ";";
-            List<String> roles = roleNamesIt.next();
-            for (int r = 0; r < roles.size(); r++)
-            {
-                result += roles.get(r);
-                if (r < roles.size() - 1)
-                    result += ",";
-            }
-
-            if (g < roleGroups.size() - 1)
-                result += "/";
-        }
-        return result;
-    }
-
-    private static SortedMap<String, List<String>> convertRoleGroupsFromString(String input) {
-        SortedMap<String, List<String>> result = new TreeMap<>();
-        String[] groupSplits = input.split("/");
-        for (int g = 0; g < groupSplits.length; g++)
-        {
-            String[] nameSplits = groupSplits[g].split(";");
-            if (nameSplits.length != 2)
-                continue;
-            String[] roleSplits = nameSplits[1].split(",");
-            List<String> roleNames = new ArrayList<String>();
-            for (int r = 0; r < roleSplits.length; r++)
-                roleNames.add(roleSplits[r]);
-            result.put(nameSplits[0], roleNames);
-        }
-        return result;
-    }
-
-    /**
-     * Loads the predefined role groups for a server from the database if not already cached
-     * @param serverId
-     */
-    private static void loadPredefRoleGroups(String serverId) {
-        if (permittedDiscordRoles.get(serverId) != null)
-            return;
-        try {
-            Database db = RaidBot.getInstance().getDatabase();
-            QueryResult results = db.query("SELECT `predef_role_groups` FROM `serverSettings` WHERE `serverId` = ?",
-                    new String[]{serverId});
-            if (results.getResults().next()) {
-                String result = results.getResults().getString("predef_role_groups");
-                if (result != null) {
-                    // construct sorted map
-                    permittedDiscordRoles.put(serverId, convertRoleGroupsFromString(result));
-                }
-            }
-        } catch (Exception e) { }
-    }
-
-
     /**
      * Returns the set of predefined role groups on this server
      * @param serverId
-     * @return list of predefined role groups
+     * @return sorted set of predefined role groups, unmodifiable
      */
     public static Set<String> getPredefGroupNames(String serverId) {
-        loadPredefRoleGroups(serverId);
-        SortedMap<String, List<String>> permRolesServer = permittedDiscordRoles.get(serverId);
-        if (permRolesServer == null)
-            return new HashSet<String>();
-        return permRolesServer.keySet();
+        return getSettings(serverId).getRoleGroupNames();
     }
 
     /**
      * Returns the list of discord roles corresponding to a predefined group name
      * @param serverId
      * @param groupId
-     * @return list of discord roles
+     * @return list of discord roles, unmodifiable
      */
     public static List<String> getPredefGroupRoles(String serverId, int groupId) {
-        loadPredefRoleGroups(serverId);
-        SortedMap<String, List<String>> permRolesServer = permittedDiscordRoles.get(serverId);
-        List<String> result = new ArrayList<String>();
-        if (permRolesServer == null)
-            return result;
-        Iterator<List<String>> it = permRolesServer.values().iterator();
-        try {
-            for (int i = 0; i < groupId; i++)
-                it.next();
-            return it.next();
-        } catch (Exception exc) {
-            return result;
-        }
+        List<List<String>> groupRoles = getSettings(serverId).getRoleGroupRoles();
+        if (groupId < 0 || groupId >= groupRoles.size())
+            return Collections.emptyList();
+        return groupRoles.get(groupId);
     }
 
     /**
      * Returns a list of lists of discord roles corresponding to a all group names
      * @param serverId
-     * @return list of lists of discord roles
+     * @return list of lists of discord roles, unmodifiable
      */
     public static List<List<String>> getAllPredefGroupRoles(String serverId) {
-        loadPredefRoleGroups(serverId);
-        SortedMap<String, List<String>> permRolesServer = permittedDiscordRoles.get(serverId);
-        List<List<String>> result = new ArrayList<>();
-        if (permRolesServer == null)
-            return result;
-        Iterator<List<String>> it = permRolesServer.values().iterator();
-        while (it.hasNext())
-            result.add(it.next());
-        return result;
+        return getSettings(serverId).getRoleGroupRoles();
     }
 
     /*********************************/
@@ -485,187 +359,51 @@ public class ServerSettings {
     /** FUNCTIONS FOR ROLE TEMAPLTES */
 
     public static void removeRoleTemplate(String serverId, int templateId) {
-        SortedMap<String, List<RaidRole>> serverRoleTemplates = roleTemplates.get(serverId);
-        if (serverRoleTemplates != null)
-        {
-            Iterator<String> templateNames = serverRoleTemplates.keySet().iterator();
-            try {
-                while (templateId >= 0)
-                {
-                    templateNames.next();
-                    templateId--;
-                }
-                templateNames.remove();
-            } catch (Exception e) { }
-            updateRoleTemplatesDB(serverId);
-        }
+        List<String> templateNames = getRoleTemplateNames(serverId);
+        if (templateId < 0 || templateId >= templateNames.size())
+            return;
+        String templateName = templateNames.get(templateId);
+        updateSettings(serverId, current -> current.withoutRoleTemplate(templateName),
+                repository -> repository.removeRoleTemplate(serverId, templateName));
     }
 
     public static boolean addRoleTemplate(String serverId, String templateName, List<RaidRole> roles) {
         // add role template
-        SortedMap<String, List<RaidRole>> serverRoleTemplates = roleTemplates.get(serverId);
-        if (serverRoleTemplates == null)
-            serverRoleTemplates = new TreeMap<>();
-        serverRoleTemplates.put(templateName, roles);
-        roleTemplates.put(serverId, serverRoleTemplates);
-        updateRoleTemplatesDB(serverId);
+        updateSettings(serverId, current -> current.withRoleTemplate(templateName, roles),
+                repository -> repository.putRoleTemplate(serverId, templateName, roles));
 
         return true;
     }
 
-
-    private static void updateRoleTemplatesDB(String serverId) {
-        SortedMap<String, List<RaidRole>> serverRoleTemplates = roleTemplates.get(serverId);
-        Database db = RaidBot.getInstance().getDatabase();
-        if (serverRoleTemplates == null)
-        {
-            try {
-                db.update("UPDATE `serverSettings` SET `role_templates` = NULL WHERE `serverId` = ?",
-                        new String[]{ serverId });
-            } catch (SQLException e_remove) { }
-        }
-        else
-        {
-            String dbString = convertRoleTemplatesToString(serverRoleTemplates);
-            try {
-                db.update("INSERT INTO `serverSettings` (`serverId`,`role_templates`) VALUES (?,?)",
-                    new String[] { serverId, dbString});
-            } catch (SQLException e) {
-                //TODO: There is probably a much better way of doing this
-                try {
-                    db.update("UPDATE `serverSettings` SET `role_templates` = ? WHERE `serverId` = ?",
-                            new String[] { dbString, serverId });
-                } catch (SQLException e1) {
-                    // Not much we can do if there is also an update error
-                    log.error("Error writing server setting to database on updateRoleTemplatesDB.", e1);
-                }
-            }
-        }
-    }
-
-    private static String convertRoleTemplatesToString(SortedMap<String, List<RaidRole>> roleTemplates) {
-        String result = "";
-        if (roleTemplates == null)
-            return result;
-        Iterator<String> templateNamesIt = roleTemplates.keySet().iterator();
-        Iterator<List<RaidRole>> roleNamesIt = roleTemplates.values().iterator();
-        for (int g = 0; g < roleTemplates.size(); g++)
-        {
-            result += templateNamesIt.next() + ";";
-            List<RaidRole> roles = roleNamesIt.next();
-            for (int r = 0; r < roles.size(); r++)
-            {
-                result += roles.get(r).getName() + ":" + Integer.toString(roles.get(r).getAmount());
-                if (r < roles.size() - 1)
-                    result += ",";
-            }
-
-            if (g < roleTemplates.size() - 1)
-                result += roleTemplatesDelimiter;
-        }
-        return result;
-    }
-
-    private static SortedMap<String, List<RaidRole>> convertRoleTemplatesFromString(String input) {
-        SortedMap<String, List<RaidRole>> result = new TreeMap<>();
-        String[] templateSplits = input.split(roleTemplatesDelimiter);
-        for (int t = 0; t < templateSplits.length; t++)
-        {
-            String[] nameSplits = templateSplits[t].split(";");
-            if (nameSplits.length != 2)
-                continue;
-            String[] roleSplits = nameSplits[1].split(",");
-            List<RaidRole> roleNames = new ArrayList<RaidRole>();
-            for (int r = 0; r < roleSplits.length; r++)
-            {
-                String[] amountSplits = roleSplits[r].split(":"); // roles are saved as name:amount
-                if (amountSplits.length != 2)
-                    continue;
-                roleNames.add(new RaidRole(Integer.parseInt(amountSplits[1]), amountSplits[0]));
-            }
-            result.put(nameSplits[0], roleNames);
-        }
-        return result;
-    }
-
-    /**
-     * Loads the role templates for a server from the database if not already cached
-     * @param serverId
-     */
-    private static void loadRoleTemplates(String serverId) {
-        if (roleTemplates.get(serverId) != null)
-            return;
-        try {
-            Database db = RaidBot.getInstance().getDatabase();
-            QueryResult results = db.query("SELECT `role_templates` FROM `serverSettings` WHERE `serverId` = ?",
-                    new String[]{serverId});
-            if (results.getResults().next()) {
-                String result = results.getResults().getString("role_templates");
-                if (result != null) {
-                    // construct sorted map
-                    roleTemplates.put(serverId, convertRoleTemplatesFromString(result));
-                }
-            }
-        } catch (Exception e) {
-            log.error("Error trying to get role templates.", e);
-        }
-    }
-
     /**
      * Returns the set of role templates on this server
      * @param serverId
-     * @return list of role templates
+     * @return sorted list of role templates, unmodifiable
      */
     public static List<String> getRoleTemplateNames(String serverId) {
-        loadRoleTemplates(serverId);
-        SortedMap<String, List<RaidRole>> roleTemplatesServer = roleTemplates.get(serverId);
-        List<String> result = new ArrayList<String>();
-        if (roleTemplatesServer == null)
-            return result;
-        Iterator<String> it = roleTemplatesServer.keySet().iterator();
-        while (it.hasNext())
-            result.add(it.next());
-
-        return result;
+        return getSettings(serverId).getRoleTemplateNames();
     }
 
     /**
      * Returns the list of raid roles corresponding to a template name
      * @param serverId
      * @param templateId
-     * @return list of raid roles
+     * @return list of raid roles, unmodifiable
      */
     public static List<RaidRole> getRolesForTemplate(String serverId, int templateId) {
-        loadRoleTemplates(serverId);
-        SortedMap<String, List<RaidRole>> roleTemplatesServer = roleTemplates.get(serverId);
-        List<RaidRole> result = new ArrayList<RaidRole>();
-        if (roleTemplatesServer == null)
-            return result;
-        Iterator<List<RaidRole>> it = roleTemplatesServer.values().iterator();
-        try {
-            for (int i = 0; i < templateId; i++)
-                it.next();
-            return it.next();
-        } catch (Exception exc) {
-            return result;
-        }
+        List<List<RaidRole>> templateRoles = getSettings(serverId).getRoleTemplateRoles();
+        if (templateId < 0 || templateId >= templateRoles.size())
+            return Collections.emptyList();
+        return templateRoles.get(templateId);
     }
 
     /**
      * Returns a list of lists of raid roles corresponding to a all template names
      * @param serverId
-     * @return list of lists of raid roles
+     * @return list of lists of raid roles, unmodifiable
      */
     public static List<List<RaidRole>> getAllRolesForTemplates(String serverId) {
-        loadRoleTemplates(serverId);
-        SortedMap<String, List<RaidRole>> roleTemplatesServer = roleTemplates.get(serverId);
-        List<List<RaidRole>> result = new ArrayList<>();
-        if (roleTemplatesServer == null)
-            return result;
-        Iterator<List<RaidRole>> it = roleTemplatesServer.values().iterator();
-        while (it.hasNext())
-            result.add(it.next());
-        return result;
+        return getSettings(serverId).getRoleTemplateRoles();
     }
 
     /**
@@ -698,14 +436,64 @@ public class ServerSettings {
      * @return true if channel is valid, false otherwise
      */
     public static boolean checkChannel(String serverId, String channelName) {
-        boolean validChannel = false;
-        RaidBot bot = RaidBot.getInstance();
-        for (TextChannel channel : bot.getServer(serverId).getTextChannels()) {
-            if(channel.getName().replace("#","").equalsIgnoreCase(channelName)) {
-                validChannel = true;
+        return findChannel(serverId, channelName) != null;
+    }
+
+    /**
+     * Find a channel by the name a user entered. This searches all channels of the server,
+     * so it is only used for user input, stored channels are looked up by ID with getTextChannel.
+     * @param serverId the id of the server
+     * @param channelName the channel name, with or without hash
+     * @return the first channel with this name ignoring case, or null if there is none
+     */
+    public static TextChannel findChannel(String serverId, String channelName) {
+        if (channelName == null)
+            return null;
+        String name = channelName.replace("#","");
+        for (TextChannel channel : RaidBot.getInstance().getServer(serverId).getTextChannels()) {
+            if(channel.getName().replace("#","").equalsIgnoreCase(name)) {
+                return channel;
             }
         }
-        return validChannel;
+        return null;
+    }
+
+    /**
+     * Get a text channel of a server by ID
+     * @param serverId the id of the server
+     * @param channelId the channel ID, may be null
+     * @return the channel, or null if the server has no channel with this ID
+     */
+    public static TextChannel getTextChannel(String serverId, String channelId) {
+        if (channelId == null || !isChannelId(channelId))
+            return null;
+        Guild guild = RaidBot.getInstance().getServer(serverId);
+        return guild == null ? null : guild.getTextChannelById(channelId);
+    }
+
+    /**
+     * Get the configured channel of a type for a server
+     * @param serverId the id of the server
+     * @param type the type of the channel
+     * @return the channel, or null if the server hasn't set one or it does not exist anymore
+     */
+    public static TextChannel getTextChannel(String serverId, ChannelType type) {
+        return getTextChannel(serverId, getChannel(serverId, type));
+    }
+
+    /**
+     * checks if a stored channel is an ID, older versions stored channel names
+     * @param channel the stored channel
+     * @return true if the channel is a discord ID
+     */
+    private static boolean isChannelId(String channel) {
+        if (channel.length() < 17 || channel.length() > 20)
+            return false;
+        for (int i = 0; i < channel.length(); i++) {
+            if (channel.charAt(i) < '0' || channel.charAt(i) > '9')
+                return false;
+        }
+        return true;
     }
 
 
@@ -736,7 +524,7 @@ public class ServerSettings {
      * @return whether a valid archive channel is available
      */
     public static boolean isArchiveAvailable(String serverId) {
-        return checkChannel(serverId, getArchiveChannel(serverId));
+        return getTextChannel(serverId, ChannelType.ARCHIVE) != null;
     }
 
 }
@@ -0,0 +1,71 @@
+package me.cbitler.raidbot.server_settings;
+
+import me.cbitler.raidbot.raids.RaidRole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Storage for the settings of the servers.
+ * Every setting is a string stored under a key (see the keys used in {@link ServerSettings}), a missing setting is null.
+ * Role groups and role templates are stored item by item, keyed by server and name.
+ */
+public interface SettingsRepository {
+
+    /**
+     * Read the settings of all servers at once
+     * @return The settings of each server keyed by server ID, null if they could not be read
+     */
+    Map<String, Map<String, String>> loadSettings();
+
+    /**
+     * Change a setting of a server. The change may be written in the background, errors are logged by the repository.
+     * @param serverId The server ID
+     * @param key The key of the setting
+     * @param value The new value, null to remove the setting
+     */
+    void setSetting(String serverId, String key, String value);
+
+    /**
+     * Read the role groups of all servers at once
+     * @return The discord roles of each group keyed by group name, keyed by server ID, null if they could not be read
+     */
+    Map<String, SortedMap<String, List<String>>> loadRoleGroups();
+
+    /**
+     * Add a role group or replace the group with the same name
+     * @param serverId The server ID
+     * @param name The name of the group
+     * @param roles The discord roles of the group
+     */
+    void putRoleGroup(String serverId, String name, List<String> roles);
+
+    /**
+     * Remove a role group
+     * @param serverId The server ID
+     * @param name The name of the group
+     */
+    void removeRoleGroup(String serverId, String name);
+
+    /**
+     * Read the role templates of all servers at once
+     * @return The roles of each template keyed by template name, keyed by server ID, null if they could not be read
+     */
+    Map<String, SortedMap<String, List<RaidRole>>> loadRoleTemplates();
+
+    /**
+     * Add a role template or replace the template with the same name
+     * @param serverId The server ID
+     * @param name The name of the template
+     * @param roles The roles of the template with their amounts
+     */
+    void putRoleTemplate(String serverId, String name, List<RaidRole> roles);
+
+    /**
+     * Remove a role template
+     * @param serverId The server ID
+     * @param name The name of the template
+     */
+    void removeRoleTemplate(String serverId, String name);
+}
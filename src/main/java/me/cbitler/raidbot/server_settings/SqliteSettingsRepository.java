@@ -0,0 +1,207 @@
+package me.cbitler.raidbot.server_settings;
+
+import me.cbitler.raidbot.database.Database;
+import me.cbitler.raidbot.raids.RaidRole;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stores the server settings in the serverSettings table of the SQLite database, one column per setting key.
+ * Role groups and role templates are stored in the roleGroups and roleTemplates tables, one row per discord role
+ * or template role, so a change only rewrites the rows of the changed group or template.
+ * Changes are written on the database thread.
+ */
+public class SqliteSettingsRepository implements SettingsRepository {
+    private static final Logger log = LogManager.getLogger(SqliteSettingsRepository.class);
+
+    /* *
+     * the columns of the serverSettings table that can be used as keys
+     */
+    private static final Set<String> COLUMNS = new HashSet<>(Arrays.asList("raid_leader_role", "fractal_creator_role",
+            "fractal_channel", "archive_channel", "auto_events_channel"));
+
+    private static final String DELETE_ROLE_GROUP = "DELETE FROM `roleGroups` WHERE `serverId` = ? AND `name` = ?";
+    private static final String DELETE_ROLE_TEMPLATE = "DELETE FROM `roleTemplates` WHERE `serverId` = ? AND `name` = ?";
+
+    private final Database db;
+
+    /**
+     * Create a repository that stores the settings in a database
+     * @param db The database, already connected
+     */
+    public SqliteSettingsRepository(Database db) {
+        this.db = db;
+    }
+
+    /**
+     * Read the settings of all servers with a single query
+     * @return The settings of each server keyed by server ID, null if they could not be read
+     */
+    @Override
+    public Map<String, Map<String, String>> loadSettings() {
+        Map<String, Map<String, String>> settings = new HashMap<>();
+        try {
+            db.queryList("SELECT * FROM `serverSettings`", new String[] {}, row -> {
+                Map<String, String> serverSettings = new HashMap<>();
+                for (String key : COLUMNS) {
+                    String value = row.getString(key);
+                    if (value != null)
+                        serverSettings.put(key, value);
+                }
+                settings.put(row.getString("serverId"), serverSettings);
+                return null;
+            });
+        } catch (SQLException e) {
+            log.error("Error reading server settings.", e);
+            return null;
+        }
+        return settings;
+    }
+
+    /**
+     * Change a setting of a server. The row of the server is created if it doesn't exist yet.
+     * @param serverId The server ID
+     * @param key The key of the setting
+     * @param value The new value, null to remove the setting
+     */
+    @Override
+    public void setSetting(String serverId, String key, String value) {
+        checkKey(key);
+        db.updateTransactionAsync(Arrays.asList(
+                "INSERT OR IGNORE INTO `serverSettings` (`serverId`) VALUES (?)",
+                "UPDATE `serverSettings` SET `" + key + "` = ? WHERE `serverId` = ?"),
+                Arrays.asList(new String[] { serverId }, new String[] { value, serverId }))
+                .exceptionally(e -> {
+                    log.error("Error writing server setting {} for server {} to database.", key, serverId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, SortedMap<String, List<String>>> loadRoleGroups() {
+        Map<String, SortedMap<String, List<String>>> groups = new HashMap<>();
+        try {
+            db.queryList("SELECT `serverId`, `name`, `discordRole` FROM `roleGroups` ORDER BY `serverId`, `name`, `position`",
+                    new String[] {}, row -> groups.computeIfAbsent(row.getString("serverId"), id -> new TreeMap<>())
+                            .computeIfAbsent(row.getString("name"), name -> new ArrayList<>())
+                            .add(row.getString("discordRole")));
+        } catch (SQLException e) {
+            log.error("Error reading role groups.", e);
+            return null;
+        }
+        return groups;
+    }
+
+    /**
+     * Replace the rows of a role group in one transaction
+     * @param serverId The server ID
+     * @param name The name of the group
+     * @param roles The discord roles of the group
+     */
+    @Override
+    public void putRoleGroup(String serverId, String name, List<String> roles) {
+        List<String> queries = new ArrayList<>();
+        List<String[]> data = new ArrayList<>();
+        queries.add(DELETE_ROLE_GROUP);
+        data.add(new String[] { serverId, name });
+        for (int r = 0; r < roles.size(); r++) {
+            queries.add("INSERT INTO `roleGroups` (`serverId`, `name`, `position`, `discordRole`) VALUES (?,?,?,?)");
+            data.add(new String[] { serverId, name, Integer.toString(r), roles.get(r) });
+        }
+        write(queries, data, "role group " + name, serverId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeRoleGroup(String serverId, String name) {
+        write(Arrays.asList(DELETE_ROLE_GROUP), Arrays.<String[]>asList(new String[] { serverId, name }),
+                "role group " + name, serverId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, SortedMap<String, List<RaidRole>>> loadRoleTemplates() {
+        Map<String, SortedMap<String, List<RaidRole>>> templates = new HashMap<>();
+        try {
+            db.queryList("SELECT `serverId`, `name`, `role`, `amount` FROM `roleTemplates` ORDER BY `serverId`, `name`, `position`",
+                    new String[] {}, row -> templates.computeIfAbsent(row.getString("serverId"), id -> new TreeMap<>())
+                            .computeIfAbsent(row.getString("name"), name -> new ArrayList<>())
+                            .add(new RaidRole(row.getInt("amount"), row.getString("role"))));
+        } catch (SQLException e) {
+            log.error("Error reading role templates.", e);
+            return null;
+        }
+        return templates;
+    }
+
+    /**
+     * Replace the rows of a role template in one transaction
+     * @param serverId The server ID
+     * @param name The name of the template
+     * @param roles The roles of the template with their amounts
+     */
+    @Override
+    public void putRoleTemplate(String serverId, String name, List<RaidRole> roles) {
+        List<String> queries = new ArrayList<>();
+        List<String[]> data = new ArrayList<>();
+        queries.add(DELETE_ROLE_TEMPLATE);
+        data.add(new String[] { serverId, name });
+        for (int r = 0; r < roles.size(); r++) {
+            queries.add("INSERT INTO `roleTemplates` (`serverId`, `name`, `position`, `role`, `amount`) VALUES (?,?,?,?,?)");
+            data.add(new String[] { serverId, name, Integer.toString(r), roles.get(r).getName(),
+                    Integer.toString(roles.get(r).getAmount()) });
+        }
+        write(queries, data, "role template " + name, serverId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeRoleTemplate(String serverId, String name) {
+        write(Arrays.asList(DELETE_ROLE_TEMPLATE), Arrays.<String[]>asList(new String[] { serverId, name }),
+                "role template " + name, serverId);
+    }
+
+    /**
+     * Write a change in one transaction on the database thread and log errors
+     * @param queries The queries
+     * @param data The parameters for each query
+     * @param item Describes the changed item for the log
+     * @param serverId The server ID
+     */
+    private void write(List<String> queries, List<String[]> data, String item, String serverId) {
+        db.updateTransactionAsync(queries, data).exceptionally(e -> {
+            log.error("Error writing {} for server {} to database.", item, serverId, e);
+            return null;
+        });
+    }
+
+    /**
+     * Keys are used as column names, so only the known columns are accepted
+     * @param key The key of a setting
+     */
+    private static void checkKey(String key) {
+        if (!COLUMNS.contains(key))
+            throw new IllegalArgumentException("Unknown server setting: " + key);
+    }
+}
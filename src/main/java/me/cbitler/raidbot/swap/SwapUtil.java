@@ -14,9 +14,11 @@ public class SwapUtil {
 	 * @param userId
 	 */
 	public static void moveMainToFlex(Raid raid, String userId, boolean update_message) {
-		RaidUser mainRole = raid.getRaidUsersById(userId).get(0); // this should never return null
-		raid.addUserFlexRole(userId, mainRole.getName(), mainRole.getSpec(), mainRole.getRole(), true, false);
-		raid.removeUserFromMainRoles(userId, false);
+		synchronized (raid) {
+			RaidUser mainRole = raid.getRaidUsersById(userId).get(0); // this should never return null
+			raid.addUserFlexRole(userId, mainRole.getName(), mainRole.getSpec(), mainRole.getRole(), true, false);
+			raid.removeUserFromMainRoles(userId, false);
+		}
 		if (update_message)
 			raid.updateMessage();
 	}
@@ -30,18 +32,21 @@ public class SwapUtil {
 	 * @return true, if there was a free spot in the main roles to move the user's flex role to
 	 */
 	public static boolean moveFlexToMain(Raid raid, User user, int flexRoleId) {
-		FlexRole flexRole = raid.getRaidUsersFlexRolesById(user.getId()).get(flexRoleId);
-		if (raid.isValidNotFullRole(flexRole.getRole())) {
-			if (raid.isUserInRaid(user.getId())) {
-				// move old main to flex
-				moveMainToFlex(raid, user.getId(), false);
-			}
-			// move flex to main
-			raid.addUser(user.getId(), user.getName(), flexRole.getSpec(), flexRole.getRole(), true, false);
-			raid.removeUserFromFlexRoles(user.getId(), flexRole.getRole(), flexRole.getSpec(), true);
-			// remove will update the message as well
-			return true;
-		} else
-			return false;
+		// the check for a free spot and the move have to be atomic
+		synchronized (raid) {
+			FlexRole flexRole = raid.getRaidUsersFlexRolesById(user.getId()).get(flexRoleId);
+			if (raid.isValidNotFullRole(flexRole.getRole())) {
+				if (raid.isUserInRaid(user.getId())) {
+					// move old main to flex
+					moveMainToFlex(raid, user.getId(), false);
+				}
+				// move flex to main
+				raid.addUser(user.getId(), user.getName(), flexRole.getSpec(), flexRole.getRole(), true, false);
+				raid.removeUserFromFlexRoles(user.getId(), flexRole.getRole(), flexRole.getSpec(), true);
+				// remove will update the message as well
+				return true;
+			} else
+				return false;
+		}
 	}
 }
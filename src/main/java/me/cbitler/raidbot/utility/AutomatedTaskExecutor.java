@@ -4,9 +4,17 @@ import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,65 +24,154 @@ import org.apache.logging.log4j.Logger;
 // -----------------------------------------
 
 
+/**
+ * Runs a task every day at the target time of the task.
+ * All tasks share one scheduler thread that only keeps the timers, the tasks themselves run on a small
+ * pool of AUTO_EVENT_THREADS (default 2) threads, so the number of threads stays the same however many
+ * auto events the servers create. Tasks are identified by the stable ID of their ExecutableTask.
+ */
 public class AutomatedTaskExecutor {
     private static final Logger log = LogManager.getLogger(AutomatedTaskExecutor.class);
 
-    ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "auto-events-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final AtomicInteger workerCount = new AtomicInteger();
+    private static final ExecutorService workers = Executors.newFixedThreadPool(
+            Math.max(1, EnvVariables.getIntValue("AUTO_EVENT_THREADS", 2)), r -> {
+                Thread thread = new Thread(r, "auto-events-" + workerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /* *
+     * the running tasks by task ID
+     */
+    private static final ConcurrentHashMap<String, AutomatedTaskExecutor> runningTasks = new ConcurrentHashMap<>();
+
+    private static final AtomicLong lastTaskId = new AtomicLong();
+
     ExecutableTask task;
     volatile boolean isStopIssued;
+    private ScheduledFuture<?> nextRun;
+    private volatile ZonedDateTime nextFireTime;
 
     public AutomatedTaskExecutor(ExecutableTask task)
     {
         this.task = task;
     }
 
+    /**
+     * Create a new task ID that is unique while the bot is running
+     * @param serverId The server the task belongs to
+     * @return The task ID
+     */
+    public static String newTaskId(String serverId)
+    {
+        return serverId + "_" + lastTaskId.incrementAndGet();
+    }
+
+    /**
+     * Stop a running task
+     * @param taskId The ID of the task
+     * @return True if the task was running, false otherwise
+     */
+    public static boolean cancel(String taskId)
+    {
+        AutomatedTaskExecutor taskExec = runningTasks.get(taskId);
+        if (taskExec == null)
+            return false;
+        taskExec.stop();
+        return true;
+    }
+
+    /**
+     * Get the next fire times of all running tasks
+     * @return The next fire time of each task by task ID, sorted by task ID
+     */
+    public static Map<String, ZonedDateTime> getNextFireTimes()
+    {
+        Map<String, ZonedDateTime> fireTimes = new TreeMap<>();
+        for (AutomatedTaskExecutor taskExec : runningTasks.values()) {
+            ZonedDateTime fireTime = taskExec.getNextFireTime();
+            if (fireTime != null)
+                fireTimes.put(taskExec.getId(), fireTime);
+        }
+        return Collections.unmodifiableMap(fireTimes);
+    }
+
+    public String getId()
+    {
+        return task.getId();
+    }
+
     public String getName()
     {
         return task.getName();
     }
 
+    /**
+     * Get the time the task runs next
+     * @return The next fire time, or null if the task is not scheduled
+     */
+    public ZonedDateTime getNextFireTime()
+    {
+        return nextFireTime;
+    }
+
     public void startExecution()
     {
-        Runnable taskWrapper = new Runnable(){
-
-            @Override
-            public void run()
-            {
-                task.execute();
-                startExecution();
-            }
-
-        };
-        long delay = computeNextDelay(task.getNextTargetHour(), task.getNextTargetMin(), 0);
-        log.trace("Next task scheduled in "+Long.toString(delay)+" seconds.");
-        executorService.schedule(taskWrapper, delay, TimeUnit.SECONDS);
+        runningTasks.put(getId(), this);
+        scheduleNext();
     }
 
-    private long computeNextDelay(int targetHour, int targetMin, int targetSec)
+    private synchronized void scheduleNext()
+    {
+        if (isStopIssued)
+            return;
+        ZonedDateTime fireTime = computeNextFireTime(task.getNextTargetHour(), task.getNextTargetMin(), 0);
+        long delay = Duration.between(ZonedDateTime.now(fireTime.getZone()), fireTime).toMillis();
+        log.trace("Next run of task {} scheduled at {}.", getId(), fireTime);
+        nextFireTime = fireTime;
+        // the scheduler thread only hands the task over, so a slow task does not delay the others
+        nextRun = scheduler.schedule(() -> workers.execute(this::run), Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void run()
+    {
+        if (isStopIssued)
+            return;
+        try {
+            task.execute();
+        } catch (RuntimeException e) {
+            log.error("Automated task {} failed.", getId(), e);
+        }
+        scheduleNext();
+    }
+
+    private ZonedDateTime computeNextFireTime(int targetHour, int targetMin, int targetSec)
     {
         LocalDateTime localNow = LocalDateTime.now();
         ZoneId currentZone = ZoneId.systemDefault();
         ZonedDateTime zonedNow = ZonedDateTime.of(localNow, currentZone);
-        ZonedDateTime zonedNextTarget = zonedNow.withHour(targetHour).withMinute(targetMin).withSecond(targetSec);
+        ZonedDateTime zonedNextTarget = zonedNow.withHour(targetHour).withMinute(targetMin).withSecond(targetSec).withNano(0);
         if(zonedNow.compareTo(zonedNextTarget) >= 0)
             zonedNextTarget = zonedNextTarget.plusDays(1);
-
-        Duration duration = Duration.between(zonedNow, zonedNextTarget);
-        return duration.getSeconds();
+        return zonedNextTarget;
     }
 
-    public void stop()
+    /**
+     * Stop the task. A run that has already started is finished, but the task is not scheduled again.
+     */
+    public synchronized void stop()
     {
-        // use shutdownNow instead of shutdown because the latter waits for scheduled tasks to be executed (roughly one day usually!)
-        // see: https://stackoverflow.com/questions/11520189/difference-between-shutdown-and-shutdownnow-of-executor-service
-        executorService.shutdownNow();
-        try {
-            if (!executorService.awaitTermination(10, TimeUnit.SECONDS))
-            {
-                log.error("awaitTermination in AutomatedTaskExecutor timed out.");
-            }
-        } catch (InterruptedException ex) {
-            log.error("awaitTermination in AutomatedTaskExecutor did not succeed.", ex);
-        }
+        isStopIssued = true;
+        if (nextRun != null)
+            nextRun.cancel(false);
+        nextFireTime = null;
+        runningTasks.remove(getId(), this);
     }
 }
@@ -46,6 +46,23 @@ public class EnvVariables {
         else return null;
     }
 
+    /**
+     * Get a numeric variable that was set in the .env file
+     * @param key The variable name to get the value of
+     * @param defaultValue The value to use if the variable is not set or not a number
+     * @return The value of the variable
+     */
+    public static int getIntValue(String key, int defaultValue) {
+        String value = getValue(key);
+        if (StringUtils.isBlank(value)) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid number '{}' for variable {}, using default {}.", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
     public static String getContextPath() {
         var path = System.getenv("INIT_WORKDIR");
         if(StringUtils.isBlank(path)) {
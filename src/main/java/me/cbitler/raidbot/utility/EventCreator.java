@@ -14,24 +14,28 @@ public class EventCreator implements ExecutableTask {
 
 	String lastEventId;
 	String serverId;
-	int idOnServer;
 	String taskId;
 	AutoPendingRaid eventTemplate;
 	boolean hasSeparateDelete;
 	boolean isCreateNext; // whether creation is next (or deletion), only used if hasSeparateDelete == true
 
-	public EventCreator(AutoPendingRaid event, int id)
+	public EventCreator(AutoPendingRaid event, String taskId)
 	{
 		eventTemplate = event;
 		serverId = event.getServerId();
-		idOnServer = id;
-		taskId = serverId + "_" + Integer.toString(idOnServer);
+		this.taskId = taskId;
         hasSeparateDelete = eventTemplate.getResetHour() != eventTemplate.getDeleteHour()
         		|| eventTemplate.getResetMinutes() != eventTemplate.getDeleteMinutes();
         isCreateNext = true;
 	}
 
 
+	@Override
+	public String getId() {
+		return taskId;
+	}
+
+
 	@Override
 	public String getName() {
 		return eventTemplate.getName() + " @ " + eventTemplate.getTime();
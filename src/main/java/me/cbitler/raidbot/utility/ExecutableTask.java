@@ -2,6 +2,12 @@ package me.cbitler.raidbot.utility;
 
 public interface ExecutableTask {
 	
+	/**
+	 * Get the ID of the task, stable while the task exists
+	 * @return The task ID
+	 */
+	public String getId();
+	
 	public String getName();
 	
 	public int getNextTargetHour();
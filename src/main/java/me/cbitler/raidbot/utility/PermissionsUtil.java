@@ -1,41 +1,159 @@
 package me.cbitler.raidbot.utility;
 
-//import java.util.List;
-//import java.util.ArrayList;
-//import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import me.cbitler.raidbot.server_settings.ServerSettings;
+import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 
 /**
- * Utility class for handling permissions
+ * Utility class for handling permissions.
+ * Roles are configured by name, but checked by id: the role names of each server are resolved to role ids once
+ * and the resolved ids are reused until the roles of the server change (see {@link #refreshRoles(Guild)}),
+ * so a check only looks up the member's role ids in a set.
  * @author Christopher Bitler
  */
 public class PermissionsUtil {
 
-//	static String[] discordRoleNames = {
-//            "Master Raider", "Adept Raider"
-//    };
-//
-//	public static List<String> getAllDiscordRoleNames() {
-//		return new ArrayList<String>(Arrays.asList(discordRoleNames));
-//	}
+    /**
+     * The roles of a server by name. A new index replaces the old one when the roles of the server change,
+     * so role ids that were resolved with an index stay valid as long as the index is current.
+     */
+    public static final class RoleIndex {
+        private final Map<String, Set<Long>> idsByName;
+
+        private RoleIndex(Guild guild) {
+            Map<String, Set<Long>> index = new HashMap<>();
+            for (Role role : guild.getRoles())
+                index.computeIfAbsent(key(role.getName()), name -> new HashSet<>()).add(role.getIdLong());
+            index.replaceAll((name, ids) -> Collections.unmodifiableSet(ids));
+            this.idsByName = index;
+        }
+
+        /**
+         * Resolve role names to the ids of all roles with these names, ignoring case
+         * @param roleNames The role names
+         * @return The role ids, unmodifiable
+         */
+        public Set<Long> resolve(Collection<String> roleNames) {
+            if (roleNames.size() == 1)
+                return resolve(roleNames.iterator().next());
+            Set<Long> ids = new HashSet<>();
+            for (String roleName : roleNames)
+                ids.addAll(resolve(roleName));
+            return Collections.unmodifiableSet(ids);
+        }
+
+        /**
+         * Resolve a role name to the ids of all roles with this name, ignoring case
+         * @param roleName The role name
+         * @return The role ids, unmodifiable
+         */
+        public Set<Long> resolve(String roleName) {
+            Set<Long> ids = idsByName.get(key(roleName));
+            return ids == null ? Collections.emptySet() : ids;
+        }
+
+        private static String key(String roleName) {
+            return roleName.toLowerCase(Locale.ROOT);
+        }
+    }
 
     /**
-     * Check to see if a member has a specific role
+     * Role ids resolved from role names, together with the index they were resolved with
+     */
+    public static final class ResolvedRoles {
+        private final RoleIndex index;
+        private final Set<Long> ids;
+
+        private ResolvedRoles(RoleIndex index, Set<Long> ids) {
+            this.index = index;
+            this.ids = ids;
+        }
+
+        public Set<Long> getIds() {
+            return ids;
+        }
+    }
+
+    /* *
+     * the current role index of each server, built on first use
+     */
+    private static final ConcurrentHashMap<String, RoleIndex> roleIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * Get the current role index of a server
+     * @param guild The server
+     * @return The role index
+     */
+    public static RoleIndex getRoleIndex(Guild guild) {
+        return roleIndexes.computeIfAbsent(guild.getId(), id -> new RoleIndex(guild));
+    }
+
+    /**
+     * Rebuild the role index of a server after a role was created, renamed or deleted.
+     * All role ids resolved with the old index are resolved again on their next use.
+     * @param guild The server
+     */
+    public static void refreshRoles(Guild guild) {
+        roleIndexes.put(guild.getId(), new RoleIndex(guild));
+    }
+
+    /**
+     * Forget the roles of a server the bot has left
+     * @param serverId The server ID
+     */
+    public static void forgetServer(String serverId) {
+        roleIndexes.remove(serverId);
+    }
+
+    /**
+     * Resolve role names to role ids, reusing earlier resolved ids if the roles of the server have not changed since
+     * @param guild The server
+     * @param roleNames The role names
+     * @param previous The ids resolved before for the same names, or null
+     * @return The resolved ids
+     */
+    public static ResolvedRoles resolveRoles(Guild guild, Collection<String> roleNames, ResolvedRoles previous) {
+        RoleIndex index = getRoleIndex(guild);
+        if (previous != null && previous.index == index)
+            return previous;
+        return new ResolvedRoles(index, index.resolve(roleNames));
+    }
+
+    /**
+     * Check to see if a member has one of the given roles
      * @param member The member to check
-     * @param
-     * @return True if they have the role, false if they don't
+     * @param roleIds The role ids
+     * @return True if they have one of the roles, false if they don't
      */
-	public static boolean hasRole(Member member, String rolename) {
+    public static boolean hasAnyRole(Member member, Set<Long> roleIds) {
+        if (roleIds.isEmpty())
+            return false;
         for (Role role : member.getRoles()) {
-            if (role.getName().equalsIgnoreCase(rolename)) {
+            if (roleIds.contains(role.getIdLong()))
                 return true;
-            }
         }
         return false;
-	}
+    }
+
+    /**
+     * Check to see if a member has a specific role
+     * @param member The member to check
+     * @param rolename The name of the role, ignoring case
+     * @return True if they have the role, false if they don't
+     */
+    public static boolean hasRole(Member member, String rolename) {
+        return hasAnyRole(member, getRoleIndex(member.getGuild()).resolve(rolename));
+    }
 
 
     public static boolean hasRaidLeaderRole(Member member) {
@@ -44,8 +162,8 @@ public class PermissionsUtil {
     }
 
 
-	public static boolean hasFractalCreatorRole(Member member) {
-		String fractalCreatorRole = ServerSettings.getFractalCreatorRole(member.getGuild().getId());
+    public static boolean hasFractalCreatorRole(Member member) {
+        String fractalCreatorRole = ServerSettings.getFractalCreatorRole(member.getGuild().getId());
         return hasRole(member, fractalCreatorRole);
-	}
+    }
 }
@@ -0,0 +1,124 @@
+package me.cbitler.raidbot.selection;
+
+import me.cbitler.raidbot.RaidBot;
+import me.cbitler.raidbot.raids.FlexRole;
+import me.cbitler.raidbot.raids.InMemoryEventRepository;
+import me.cbitler.raidbot.raids.Raid;
+import me.cbitler.raidbot.raids.RaidRole;
+import me.cbitler.raidbot.raids.RaidUser;
+import me.cbitler.raidbot.server_settings.InMemorySettingsRepository;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.requests.restaction.CacheRestAction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Concurrent sign-ups for the last slots of a role must never overfill it.
+ */
+public class PickRoleStepTest {
+    private static final String ROLE = "Healer";
+    private static final int SLOTS = 5;
+    private static final int TAKEN = 3;
+    private static final int USERS = 64;
+
+    private InMemoryEventRepository repository;
+    private Raid raid;
+
+    @Before
+    public void setUp() {
+        Guild guild = stub(Guild.class, null);
+        JDA jda = stub(JDA.class, guild);
+        repository = new InMemoryEventRepository();
+        new RaidBot(jda, repository, new InMemorySettingsRepository());
+
+        raid = new Raid("100000000000000001", "100000000000000002", "100000000000000003", "",
+                "Stress test", "-", "today", "now", false, false, false, new ArrayList<>());
+        RaidRole role = new RaidRole(SLOTS, ROLE);
+        role.setId(0);
+        raid.getRoles().add(role);
+        repository.insertEvent(raid);
+        for (int i = 0; i < TAKEN; i++)
+            raid.addUser("taken" + i, "taken" + i, "Druid", ROLE, true, false);
+    }
+
+    @Test
+    public void concurrentPicksNeverOverfillRole() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> picks = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            String userId = "user" + i;
+            PickRoleStep step = new PickRoleStep(raid, "Druid", stub(User.class, null), false);
+            picks.add(threads.submit(() -> {
+                start.await();
+                return step.pickRole(userId, userId, ROLE);
+            }));
+        }
+        start.countDown();
+        for (Future<Boolean> pick : picks)
+            assertTrue(pick.get());
+        threads.shutdown();
+
+        List<RaidUser> main = raid.getUsersInRole(ROLE);
+        assertEquals(SLOTS, main.size());
+
+        Set<String> listed = new HashSet<>();
+        for (RaidUser user : main)
+            assertTrue("listed twice: " + user.getId(), listed.add(user.getId()));
+        for (int i = 0; i < USERS; i++) {
+            String userId = "user" + i;
+            List<FlexRole> flex = raid.getRaidUsersFlexRolesById(userId);
+            boolean isMain = raid.isUserInRaid(userId);
+            // every user is either in the role or on its flex list, exactly once
+            assertEquals(userId, 1, (isMain ? 1 : 0) + flex.size());
+            if (!isMain)
+                listed.add(userId);
+        }
+        assertEquals(TAKEN + USERS, listed.size());
+    }
+
+    /**
+     * Create a JDA object that does nothing: getters return null (or the given guild), rest actions are never sent
+     * @param type The JDA interface
+     * @param guild The guild returned by getGuildById
+     * @return The stub
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Guild guild) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getGuildById":
+                    return guild;
+                case "openPrivateChannel":
+                    return stub(CacheRestAction.class, null);
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + " stub";
+                default:
+                    if (method.getReturnType() == boolean.class)
+                        return false;
+                    if (method.getReturnType().isPrimitive() && method.getReturnType() != void.class)
+                        return 0;
+                    return null;
+            }
+        });
+    }
+}